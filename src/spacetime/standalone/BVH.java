@@ -0,0 +1,672 @@
+/*
+ * Spacetime Standalone
+ * Copyright (C) 2013, John Pritchard.
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package spacetime.standalone;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounding volume hierarchy over the triangles of a face list, for
+ * ray intersection.  The hierarchy is built once over the faces
+ * listed in a root, and is not modified by queries, which may run
+ * concurrently.
+ *
+ * <pre>
+ * bounds     { x0, y0, z0, x1, y1, z1 }   per node
+ * first      { child or triangle }        per node
+ * count      { triangles }                per node, zero for interior
+ * triangles  { ax, ay, az, bx, by, bz, cx, cy, cz }  in leaf order
+ * order      { triangle number }          in leaf order
+ * </pre>
+ *
+ * <p> Nodes are split over the longest axis of their triangle
+ * centroids by the surface area heuristic evaluated at the
+ * boundaries of a fixed number of bins.  The children of an interior
+ * node are adjacent, the first being the left.  Large subtrees are
+ * built on a fork join pool when one is given. </p>
+ *
+ * <p> Rays are intersected with triangles from either side by the
+ * Moller Trumbore test, for ray distances greater than zero and less
+ * than the distance limit.  Ray distance is in units of the length
+ * of the ray direction.  Triangles are numbered in the iteration
+ * order of the root, and faces missing a corner are excluded. </p>
+ *
+ * @see Face
+ */
+public class BVH
+    extends Object
+{
+    /**
+     * Number of split candidate bins
+     */
+    protected final static int Bins = 16;
+    /**
+     * Maximum number of triangles in a leaf
+     */
+    protected final static int Leaf = 4;
+    /**
+     * Number of triangles under a node built without splitting the
+     * task
+     */
+    protected final static int Threshold = 4096;
+    /**
+     * Number of rays answered without splitting the task
+     */
+    protected final static int Rays = 1024;
+    /**
+     * Determinant of a triangle parallel to the ray
+     */
+    protected final static float Epsilon = 1e-12f;
+
+
+    protected final Face[] faces;
+
+    protected final float[] triangles;
+
+    protected final int[] order;
+
+    protected float[] bounds;
+
+    protected int[] first;
+
+    protected int[] count;
+
+    protected int nodes;
+
+    protected int depth;
+
+
+    /**
+     * @param root Face list
+     */
+    public BVH(Face root){
+        this(root,null);
+    }
+    /**
+     * @param root Face list
+     * @param pool Fork join pool for the build, or null
+     */
+    public BVH(Face root, ForkJoinPool pool){
+        super();
+        if (null != root){
+            final java.util.ArrayList<Face> list = new java.util.ArrayList<Face>(root.size());
+
+            final Iterable<Face> it = root.iterable(); // type coersion
+
+            for (Face face: it){
+
+                if (null != face && null != face.a() && null != face.b() && null != face.c())
+
+                    list.add(face);
+            }
+            final int size = list.size();
+
+            this.faces = list.toArray(new Face[size]);
+            this.order = new int[size];
+
+            final float[] triangles = new float[9*size];
+            for (int cc = 0; cc < size; cc++){
+                final Face face = this.faces[cc];
+                final int ofs = (9*cc);
+                Corner(face.a(),triangles,ofs);
+                Corner(face.b(),triangles,ofs+3);
+                Corner(face.c(),triangles,ofs+6);
+
+                this.order[cc] = cc;
+            }
+
+            final int capacity = Math.max(1,(2*size)-1);
+            this.bounds = new float[6*capacity];
+            this.first = new int[capacity];
+            this.count = new int[capacity];
+
+            final Build build = new Build(triangles,new AtomicInteger(1),(null != pool),0,0,size,1);
+            if (null != pool)
+                pool.invoke(build);
+            else
+                build.compute();
+
+            this.nodes = build.nodes.get();
+            /*
+             * Store triangles in leaf order
+             */
+            final float[] leaves = new float[9*size];
+            for (int cc = 0; cc < size; cc++){
+                System.arraycopy(triangles,(9*this.order[cc]),leaves,(9*cc),9);
+            }
+            this.triangles = leaves;
+        }
+        else
+            throw new IllegalArgumentException();
+    }
+
+
+    /**
+     * @return Number of triangles
+     */
+    public final int size(){
+        return this.faces.length;
+    }
+    /**
+     * @return Number of nodes
+     */
+    public final int nodes(){
+        return this.nodes;
+    }
+    /**
+     * @return Number of levels
+     */
+    public final int depth(){
+        return this.depth;
+    }
+    /**
+     * @param triangle Triangle number
+     * @return Face of the triangle
+     */
+    public final Face face(int triangle){
+        return this.faces[triangle];
+    }
+    /**
+     * Nearest hit
+     *
+     * @param ox Ray origin
+     * @param oy Ray origin
+     * @param oz Ray origin
+     * @param dx Ray direction
+     * @param dy Ray direction
+     * @param dz Ray direction
+     * @param limit Ray distance limit, exclusive
+     * @param hit Optional ray distance, and barycentric U and V of the
+     * hit, or null
+     * @return Triangle number of the nearest hit, or negative one for
+     * none
+     */
+    public int intersect(float ox, float oy, float oz, float dx, float dy, float dz, float limit, float[] hit){
+
+        return this.trace(ox,oy,oz,dx,dy,dz,limit,hit,false,new int[this.depth+2]);
+    }
+    /**
+     * Any hit
+     *
+     * @param limit Ray distance limit, exclusive
+     * @return The ray hits a triangle within the distance limit
+     */
+    public boolean occluded(float ox, float oy, float oz, float dx, float dy, float dz, float limit){
+
+        return (-1 < this.trace(ox,oy,oz,dx,dy,dz,limit,null,true,new int[this.depth+2]));
+    }
+    /**
+     * Nearest hit in parallel
+     *
+     * @param rays Rays as { ox, oy, oz, dx, dy, dz } sextuples
+     * @param limit Ray distance limit, exclusive
+     * @param distance Optional ray distance of each hit, or null
+     * @param pool Fork join pool
+     * @return Triangle number of the nearest hit, or negative one for
+     * none, per ray
+     */
+    public int[] intersect(float[] rays, float limit, float[] distance, ForkJoinPool pool){
+        if (null == rays || 0 != (rays.length % 6) || null == pool)
+            throw new IllegalArgumentException();
+        else {
+            final int[] hits = new int[rays.length/6];
+            if (null != distance && distance.length < hits.length)
+                throw new IllegalArgumentException(String.format("Distance length %d less than rays %d",distance.length,hits.length));
+            else {
+                pool.invoke(new Trace(rays,limit,hits,distance,null,0,hits.length));
+
+                return hits;
+            }
+        }
+    }
+    /**
+     * Any hit in parallel
+     *
+     * @param rays Rays as { ox, oy, oz, dx, dy, dz } sextuples
+     * @param limit Ray distance limit, exclusive
+     * @param pool Fork join pool
+     * @return Ray hits a triangle within the distance limit, per ray
+     */
+    public boolean[] occluded(float[] rays, float limit, ForkJoinPool pool){
+        if (null == rays || 0 != (rays.length % 6) || null == pool)
+            throw new IllegalArgumentException();
+        else {
+            final boolean[] occluded = new boolean[rays.length/6];
+
+            pool.invoke(new Trace(rays,limit,null,null,occluded,0,occluded.length));
+
+            return occluded;
+        }
+    }
+    /**
+     * @param any Return the first hit found
+     * @param stack Traversal stack of depth plus two
+     * @return Triangle number, or negative one
+     */
+    protected int trace(float ox, float oy, float oz, float dx, float dy, float dz, float limit, float[] hit, boolean any, int[] stack){
+        if (0 == this.faces.length)
+            return -1;
+        else {
+            final float[] bounds = this.bounds;
+            final int[] first = this.first;
+            final int[] count = this.count;
+            final float[] triangles = this.triangles;
+
+            final float ix = (1f/dx), iy = (1f/dy), iz = (1f/dz);
+
+            float nearest = limit;
+            int triangle = -1;
+            float hu = 0f, hv = 0f;
+
+            int top = 0;
+            stack[top++] = 0;
+
+            while (0 < top){
+
+                final int node = stack[--top];
+
+                if (Slab(bounds,node,ox,oy,oz,ix,iy,iz,nearest) < nearest){
+
+                    final int n = count[node];
+                    if (0 < n){
+                        for (int tc = first[node], end = (tc+n); tc < end; tc++){
+                            final int p = (9*tc);
+                            /*
+                             * Moller Trumbore
+                             */
+                            final float e1x = (triangles[p+3]-triangles[p]);
+                            final float e1y = (triangles[p+4]-triangles[p+1]);
+                            final float e1z = (triangles[p+5]-triangles[p+2]);
+                            final float e2x = (triangles[p+6]-triangles[p]);
+                            final float e2y = (triangles[p+7]-triangles[p+1]);
+                            final float e2z = (triangles[p+8]-triangles[p+2]);
+
+                            final float px = (dy*e2z - dz*e2y);
+                            final float py = (dz*e2x - dx*e2z);
+                            final float pz = (dx*e2y - dy*e2x);
+
+                            final float det = (e1x*px + e1y*py + e1z*pz);
+                            if (Epsilon < Math.abs(det)){
+                                final float inv = (1f/det);
+
+                                final float sx = (ox-triangles[p]);
+                                final float sy = (oy-triangles[p+1]);
+                                final float sz = (oz-triangles[p+2]);
+
+                                final float u = (sx*px + sy*py + sz*pz)*inv;
+                                if (0f <= u && 1f >= u){
+
+                                    final float qx = (sy*e1z - sz*e1y);
+                                    final float qy = (sz*e1x - sx*e1z);
+                                    final float qz = (sx*e1y - sy*e1x);
+
+                                    final float v = (dx*qx + dy*qy + dz*qz)*inv;
+                                    if (0f <= v && 1f >= (u+v)){
+
+                                        final float t = (e2x*qx + e2y*qy + e2z*qz)*inv;
+                                        if (0f < t && t < nearest){
+
+                                            nearest = t;
+                                            triangle = this.order[tc];
+                                            hu = u;
+                                            hv = v;
+
+                                            if (any)
+                                                return triangle;
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    else {
+                        /*
+                         * Visit the nearer child first
+                         */
+                        final int left = first[node], right = (left+1);
+                        final float tl = Slab(bounds,left,ox,oy,oz,ix,iy,iz,nearest);
+                        final float tr = Slab(bounds,right,ox,oy,oz,ix,iy,iz,nearest);
+                        if (tl <= tr){
+                            if (tr < nearest)
+                                stack[top++] = right;
+                            if (tl < nearest)
+                                stack[top++] = left;
+                        }
+                        else {
+                            if (tl < nearest)
+                                stack[top++] = left;
+                            if (tr < nearest)
+                                stack[top++] = right;
+                        }
+                    }
+                }
+            }
+            if (-1 < triangle && null != hit){
+                hit[0] = nearest;
+                if (2 < hit.length){
+                    hit[1] = hu;
+                    hit[2] = hv;
+                }
+            }
+            return triangle;
+        }
+    }
+    /**
+     * Subtree build, forked for large subtrees
+     */
+    protected class Build
+        extends RecursiveAction
+    {
+        protected final float[] triangles;
+
+        protected final AtomicInteger nodes;
+
+        protected final boolean parallel;
+
+        protected final int node, start, end, level;
+
+
+        protected Build(float[] triangles, AtomicInteger nodes, boolean parallel, int node, int start, int end, int level){
+            super();
+            this.triangles = triangles;
+            this.nodes = nodes;
+            this.parallel = parallel;
+            this.node = node;
+            this.start = start;
+            this.end = end;
+            this.level = level;
+        }
+
+
+        protected void compute(){
+            this.build(this.node,this.start,this.end,this.level);
+        }
+        protected void build(int node, int start, int end, int level){
+
+            final float[] triangles = this.triangles;
+            final int[] order = BVH.this.order;
+            final float[] bounds = BVH.this.bounds;
+            /*
+             * Node and centroid bounds
+             */
+            final float[] box = {Float.MAX_VALUE,Float.MAX_VALUE,Float.MAX_VALUE,-Float.MAX_VALUE,-Float.MAX_VALUE,-Float.MAX_VALUE};
+            final float[] cen = {Float.MAX_VALUE,Float.MAX_VALUE,Float.MAX_VALUE,-Float.MAX_VALUE,-Float.MAX_VALUE,-Float.MAX_VALUE};
+
+            for (int cc = start; cc < end; cc++){
+                final int p = (9*order[cc]);
+                for (int dim = 0; dim < 3; dim++){
+                    final float a = triangles[p+dim], b = triangles[p+3+dim], c = triangles[p+6+dim];
+                    box[dim] = Math.min(box[dim],Math.min(a,Math.min(b,c)));
+                    box[dim+3] = Math.max(box[dim+3],Math.max(a,Math.max(b,c)));
+                    final float m = (a+b+c);
+                    cen[dim] = Math.min(cen[dim],m);
+                    cen[dim+3] = Math.max(cen[dim+3],m);
+                }
+            }
+            System.arraycopy(box,0,bounds,(6*node),6);
+
+            final int size = (end-start);
+            if (Leaf >= size){
+                this.leaf(node,start,size,level);
+                return;
+            }
+            /*
+             * Longest centroid axis, in units of three times the
+             * centroid
+             */
+            int axis = 0;
+            for (int dim = 1; dim < 3; dim++){
+                if ((cen[dim+3]-cen[dim]) > (cen[axis+3]-cen[axis]))
+                    axis = dim;
+            }
+            final float lo = cen[axis], extent = (cen[axis+3]-lo);
+
+            int middle;
+
+            if (0f < extent){
+                /*
+                 * Binned surface area heuristic
+                 */
+                final float scale = (Bins/extent)*(1f-1e-6f);
+                final int[] bins = new int[Bins];
+                final float[] bbox = new float[6*Bins];
+                for (int bc = 0; bc < Bins; bc++)
+                    Empty(bbox,6*bc);
+
+                for (int cc = start; cc < end; cc++){
+                    final int p = (9*order[cc]);
+                    final int bc = Bin(triangles,p,axis,lo,scale);
+                    bins[bc] += 1;
+                    Include(bbox,(6*bc),triangles,p);
+                }
+                /*
+                 * Sweep areas from the right
+                 */
+                final float[] right = new float[Bins];
+                final float[] sweep = new float[6];
+                Empty(sweep,0);
+                for (int bc = (Bins-1); 0 < bc; bc--){
+                    Union(sweep,bbox,(6*bc));
+                    right[bc] = Area(sweep);
+                }
+                Empty(sweep,0);
+                int split = -1;
+                float best = Float.MAX_VALUE;
+                for (int bc = 0, nl = 0; bc < (Bins-1); bc++){
+                    Union(sweep,bbox,(6*bc));
+                    nl += bins[bc];
+                    final int nr = (size-nl);
+                    if (0 < nl && 0 < nr){
+                        final float cost = (Area(sweep)*nl + right[bc+1]*nr);
+                        if (cost < best){
+                            best = cost;
+                            split = bc;
+                        }
+                    }
+                }
+                if (-1 == split){
+
+                    middle = ((start+end)>>>1);
+                }
+                else if (Leaf*2 >= size && best >= (Area(box)*size)){
+
+                    this.leaf(node,start,size,level);
+                    return;
+                }
+                else {
+                    /*
+                     * Partition order by bin
+                     */
+                    int i = start, j = (end-1);
+                    while (i <= j){
+                        if (split >= Bin(triangles,(9*order[i]),axis,lo,scale))
+                            i += 1;
+                        else {
+                            final int swap = order[i];
+                            order[i] = order[j];
+                            order[j] = swap;
+                            j -= 1;
+                        }
+                    }
+                    middle = i;
+                }
+            }
+            else
+                middle = ((start+end)>>>1);
+
+            final int child = this.nodes.getAndAdd(2);
+            BVH.this.first[node] = child;
+            BVH.this.count[node] = 0;
+
+            if (this.parallel && Threshold < size){
+
+                invokeAll(new Build(triangles,this.nodes,true,child,start,middle,level+1),
+                          new Build(triangles,this.nodes,true,child+1,middle,end,level+1));
+            }
+            else {
+                this.build(child,start,middle,level+1);
+                this.build(child+1,middle,end,level+1);
+            }
+        }
+        protected void leaf(int node, int start, int size, int level){
+            BVH.this.first[node] = start;
+            BVH.this.count[node] = size;
+            synchronized(BVH.this){
+                if (level > BVH.this.depth)
+                    BVH.this.depth = level;
+            }
+        }
+    }
+    /**
+     * Ray range task
+     */
+    protected class Trace
+        extends RecursiveAction
+    {
+        protected final float[] rays;
+
+        protected final float limit;
+
+        protected final int[] hits;
+
+        protected final float[] distance;
+
+        protected final boolean[] occluded;
+
+        protected final int start, end;
+
+
+        protected Trace(float[] rays, float limit, int[] hits, float[] distance, boolean[] occluded, int start, int end){
+            super();
+            this.rays = rays;
+            this.limit = limit;
+            this.hits = hits;
+            this.distance = distance;
+            this.occluded = occluded;
+            this.start = start;
+            this.end = end;
+        }
+
+
+        protected void compute(){
+            final int start = this.start, end = this.end;
+            if (Rays >= (end-start)){
+                final float[] rays = this.rays;
+                final int[] stack = new int[BVH.this.depth+2];
+                final float[] hit = new float[1];
+
+                for (int cc = start; cc < end; cc++){
+                    final int r = (6*cc);
+                    if (null != this.occluded){
+
+                        this.occluded[cc] = (-1 < BVH.this.trace(rays[r],rays[r+1],rays[r+2],rays[r+3],rays[r+4],rays[r+5],this.limit,null,true,stack));
+                    }
+                    else {
+                        final int triangle = BVH.this.trace(rays[r],rays[r+1],rays[r+2],rays[r+3],rays[r+4],rays[r+5],this.limit,hit,false,stack);
+                        this.hits[cc] = triangle;
+                        if (null != this.distance)
+                            this.distance[cc] = (-1 < triangle)?(hit[0]):(Float.NaN);
+                    }
+                }
+            }
+            else {
+                final int middle = ((start+end)>>>1);
+
+                invokeAll(new Trace(this.rays,this.limit,this.hits,this.distance,this.occluded,start,middle),
+                          new Trace(this.rays,this.limit,this.hits,this.distance,this.occluded,middle,end));
+            }
+        }
+    }
+
+    /**
+     * @return Ray distance entering the node box, or the limit for a
+     * miss
+     */
+    protected final static float Slab(float[] bounds, int node, float ox, float oy, float oz, float ix, float iy, float iz, float limit){
+        final int b = (6*node);
+
+        float t0x = (bounds[b]-ox)*ix, t1x = (bounds[b+3]-ox)*ix;
+        if (t0x > t1x){ final float s = t0x; t0x = t1x; t1x = s; }
+        float t0y = (bounds[b+1]-oy)*iy, t1y = (bounds[b+4]-oy)*iy;
+        if (t0y > t1y){ final float s = t0y; t0y = t1y; t1y = s; }
+        float t0z = (bounds[b+2]-oz)*iz, t1z = (bounds[b+5]-oz)*iz;
+        if (t0z > t1z){ final float s = t0z; t0z = t1z; t1z = s; }
+        /*
+         * Zero direction ordinates within the slab produce NaN, which
+         * the comparisons ignore
+         */
+        float enter = 0f, exit = limit;
+        if (t0x > enter) enter = t0x;
+        if (t0y > enter) enter = t0y;
+        if (t0z > enter) enter = t0z;
+        if (t1x < exit) exit = t1x;
+        if (t1y < exit) exit = t1y;
+        if (t1z < exit) exit = t1z;
+
+        if (enter <= exit)
+            return enter;
+        else
+            return limit;
+    }
+    protected final static int Bin(float[] triangles, int p, int axis, float lo, float scale){
+        final float m = (triangles[p+axis]+triangles[p+3+axis]+triangles[p+6+axis]);
+        return Math.min(Bins-1,Math.max(0,(int)((m-lo)*scale)));
+    }
+    protected final static void Empty(float[] box, int ofs){
+        box[ofs] = Float.MAX_VALUE;
+        box[ofs+1] = Float.MAX_VALUE;
+        box[ofs+2] = Float.MAX_VALUE;
+        box[ofs+3] = -Float.MAX_VALUE;
+        box[ofs+4] = -Float.MAX_VALUE;
+        box[ofs+5] = -Float.MAX_VALUE;
+    }
+    protected final static void Include(float[] box, int ofs, float[] triangles, int p){
+        for (int cc = 0; cc < 9; cc += 3){
+            for (int dim = 0; dim < 3; dim++){
+                final float v = triangles[p+cc+dim];
+                if (v < box[ofs+dim])
+                    box[ofs+dim] = v;
+                if (v > box[ofs+3+dim])
+                    box[ofs+3+dim] = v;
+            }
+        }
+    }
+    protected final static void Union(float[] box, float[] from, int ofs){
+        for (int dim = 0; dim < 3; dim++){
+            box[dim] = Math.min(box[dim],from[ofs+dim]);
+            box[dim+3] = Math.max(box[dim+3],from[ofs+3+dim]);
+        }
+    }
+    /**
+     * @return Half surface area, or zero for an empty box
+     */
+    protected final static float Area(float[] box){
+        final float x = (box[3]-box[0]), y = (box[4]-box[1]), z = (box[5]-box[2]);
+        if (0f > x || 0f > y || 0f > z)
+            return 0f;
+        else
+            return (x*y + y*z + z*x);
+    }
+    protected final static void Corner(Spacetime v, float[] triangles, int ofs){
+        triangles[ofs] = STL.Value(v.x);
+        triangles[ofs+1] = STL.Value(v.y);
+        triangles[ofs+2] = STL.Value(v.z);
+    }
+}
@@ -0,0 +1,641 @@
+/*
+ * Spacetime Standalone
+ * Copyright (C) 2013, John Pritchard.
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package spacetime.standalone;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Broad phase collision over the children of a container, finding
+ * the pairs of children whose boxes overlap in X, Y and Z.  The box of
+ * a child is the extent of its coordinates and bounds, grown by a
+ * margin, and children having neither X and Y nor bounds in X and Y
+ * are not placed.
+ *
+ * <pre>
+ * boxes    { x0, y0, z0, x1, y1, z1 }     per list index
+ * ranges   { x0, y0, z0, x1, y1, z1 }     per list index, index cells
+ * cells    cell { x, y, z } to bucket
+ * keys     { x, y, z }                    per bucket
+ * buckets  { child index }                per bucket
+ * large    { child index }                spanning more than Large cells
+ * pairs    { a &lt;&lt; 32 | b }               a &lt; b, ascending
+ * </pre>
+ *
+ * <p> Each child is listed in every index cell its box covers, and a
+ * pair is found in the one cell at the low corner of the common cells
+ * of the two boxes, so that no pair is reported twice.  Children
+ * covering more than {@link #Large} cells are tested against every
+ * child instead.  A full build scans ranges of cells on a fork join
+ * pool. </p>
+ *
+ * <p> Following an update of the container, the boxes of the children
+ * are compared to those of the last update, and only the changed
+ * children are moved between cells and paired again, unless more
+ * than a quarter of them changed.  With the container unchanged the
+ * pairs of the last update are reused.  Updates to children other
+ * than by the methods of the container are found following {@link
+ * Spacetime#regrid()}. </p>
+ *
+ * @see Spacetime#collide(float,ForkJoinPool)
+ */
+public class Collider
+    extends Object
+{
+    /**
+     * Number of cells covered by a child tested against every child
+     */
+    public final static int Large = 64;
+    /**
+     * Number of buckets scanned without splitting
+     */
+    protected final static int Threshold = 256;
+
+
+    protected final float resolution;
+
+    protected final float margin;
+
+    protected Spacetime[] children;
+
+    protected float[] boxes;
+
+    protected int[] ranges;
+
+    protected SpatialHash cells;
+
+    protected int[] keys;
+
+    protected int[][] buckets;
+
+    protected int[] fill;
+
+    protected int count;
+
+    protected Pairs large;
+
+    protected long[] pairs;
+    /**
+     * Container list length when updated
+     */
+    public int size = -1;
+    /**
+     * Container modification count when updated
+     */
+    public int modified;
+
+
+    /**
+     * @param resolution Index resolution of the container
+     * @param margin Growth of the box of each child
+     */
+    public Collider(float resolution, float margin){
+        super();
+        if (0f <= margin && 0f != resolution && resolution == resolution){
+            this.resolution = resolution;
+            this.margin = margin;
+        }
+        else
+            throw new IllegalArgumentException(String.format("Resolution %f, margin %f",resolution,margin));
+    }
+
+
+    public final float getMargin(){
+        return this.margin;
+    }
+    /**
+     * @return Number of pairs of the last update
+     */
+    public final int pairs(){
+        return (null == this.pairs)?(0):(this.pairs.length);
+    }
+    /**
+     * @param container Container of this collider
+     * @param pool Fork join pool for a full build, or null
+     * @return Pairs of list indeces { a, b } of children whose boxes
+     * overlap, with a less than b, in ascending order
+     */
+    public int[] update(Spacetime container, ForkJoinPool pool){
+        final int size = container.size();
+        if (size != this.size || container.modified != this.modified){
+
+            if (size < this.size || 0 > this.size)
+                this.build(container,pool);
+            else
+                this.refresh(container,pool);
+
+            this.size = size;
+            this.modified = container.modified;
+        }
+        final long[] pairs = this.pairs;
+        final int[] list = new int[pairs.length<<1];
+        for (int p = 0; p < pairs.length; p++){
+            list[(p<<1)] = (int)(pairs[p]>>>32);
+            list[(p<<1)+1] = (int)(pairs[p] & 0xFFFFFFFFL);
+        }
+        return list;
+    }
+    /**
+     * Place all children and find all pairs
+     */
+    protected void build(Spacetime container, ForkJoinPool pool){
+        final int size = container.size();
+        this.children = new Spacetime[size];
+        this.boxes = new float[6*size];
+        this.ranges = new int[6*size];
+        this.cells = new SpatialHash(this.resolution,Math.min(size,(1<<16)),Key.Scheme.Lexical);
+        this.keys = new int[48];
+        this.buckets = new int[16][];
+        this.fill = new int[16];
+        this.count = 0;
+        this.large = new Pairs();
+
+        for (int idx = 0; idx < size; idx++){
+            final Spacetime child = (Spacetime)container.get(idx);
+            this.children[idx] = child;
+            if (this.box(child,idx))
+                this.insert(idx);
+        }
+        final Scan scan = new Scan(0,this.count);
+        final Pairs found;
+        if (null != pool)
+            found = pool.invoke(scan);
+        else
+            found = scan.compute();
+
+        final Pairs large = this.large;
+        for (int l = 0; l < large.count; l++){
+            final int a = (int)large.list[l];
+
+            this.large(a,null,found);
+        }
+        this.pairs = found.sorted();
+    }
+    /**
+     * Move the changed children and pair them again
+     */
+    protected void refresh(Spacetime container, ForkJoinPool pool){
+        final int size = container.size();
+        final int last = this.size;
+        if (size > this.children.length){
+            this.children = Grow(this.children,size);
+            this.boxes = Grow(this.boxes,6*size);
+            this.ranges = Grow(this.ranges,6*size);
+        }
+        /*
+         * Changed children
+         */
+        final float[] box = new float[6];
+        final java.util.BitSet changed = new java.util.BitSet(size);
+        int changes = 0;
+        for (int idx = 0; idx < size; idx++){
+            final Spacetime child = (Spacetime)container.get(idx);
+            final boolean placed = Box(child,this.margin,box);
+            if (idx >= last || child != this.children[idx] || placed != this.placed(idx) ||
+                (placed && !this.equals(idx,box)))
+            {
+                changed.set(idx);
+                changes += 1;
+            }
+        }
+        if (0 == changes)
+            return;
+        else if (changes > (size>>2))
+            this.build(container,pool);
+        else {
+            for (int idx = changed.nextSetBit(0); -1 < idx; idx = changed.nextSetBit(idx+1)){
+
+                if (idx < last && this.placed(idx))
+                    this.delete(idx);
+
+                final Spacetime child = (Spacetime)container.get(idx);
+                this.children[idx] = child;
+                if (this.box(child,idx))
+                    this.insert(idx);
+            }
+            /*
+             * Pairs of unchanged children, and the pairs of the
+             * changed children
+             */
+            final long[] pairs = this.pairs;
+            final Pairs kept = new Pairs();
+            for (long pair: pairs){
+                if (!changed.get((int)(pair>>>32)) && !changed.get((int)(pair & 0xFFFFFFFFL)))
+                    kept.add(pair);
+            }
+            final Pairs found = new Pairs();
+            for (int idx = changed.nextSetBit(0); -1 < idx; idx = changed.nextSetBit(idx+1)){
+                if (this.placed(idx)){
+                    final int r = (6*idx);
+                    final int[] ranges = this.ranges;
+                    if (Large < Cells(ranges,r))
+                        this.large(idx,changed,found);
+                    else {
+                        for (int cx = ranges[r]; cx <= ranges[r+3]; cx++){
+                            for (int cy = ranges[r+1]; cy <= ranges[r+4]; cy++){
+                                for (int cz = ranges[r+2]; cz <= ranges[r+5]; cz++){
+
+                                    final int b = this.cells.get(cx,cy,cz,0);
+                                    if (-1 < b)
+                                        this.scan(b,idx,cx,cy,cz,changed,found);
+                                }
+                            }
+                        }
+                        final Pairs large = this.large;
+                        for (int l = 0; l < large.count; l++){
+                            final int other = (int)large.list[l];
+                            if (other != idx && (!changed.get(other) || idx < other) && this.overlaps(idx,other))
+
+                                found.add(Pair(idx,other));
+                        }
+                    }
+                }
+            }
+            this.pairs = Pairs.Merge(kept.list,kept.count,found.sorted());
+        }
+    }
+    /**
+     * Pair a large child with every child.  A pair of large children
+     * in a build, or of changed children in a refresh, is found from
+     * the lesser of the two.
+     */
+    protected void large(int a, java.util.BitSet changed, Pairs found){
+        final Spacetime[] children = this.children;
+        for (int b = 0, size = children.length; b < size; b++){
+            if (b != a && this.placed(b) && this.overlaps(a,b)){
+
+                if (null == changed){
+                    if (a < b || Large >= Cells(this.ranges,6*b))
+                        found.add(Pair(a,b));
+                }
+                else if (a < b || !changed.get(b))
+                    found.add(Pair(a,b));
+            }
+        }
+    }
+    /**
+     * Pair a changed child with the children of a bucket
+     */
+    protected void scan(int b, int a, int cx, int cy, int cz, java.util.BitSet changed, Pairs found){
+        final int[] members = this.buckets[b];
+        final int[] ranges = this.ranges;
+        final int ra = (6*a);
+        for (int m = 0, end = this.fill[b]; m < end; m++){
+            final int other = members[m];
+            if (other != a && (!changed.get(other) || a < other)){
+                final int ro = (6*other);
+                if (cx == Math.max(ranges[ra],ranges[ro]) &&
+                    cy == Math.max(ranges[ra+1],ranges[ro+1]) &&
+                    cz == Math.max(ranges[ra+2],ranges[ro+2]) &&
+                    this.overlaps(a,other))
+                {
+                    found.add(Pair(a,other));
+                }
+            }
+        }
+    }
+    /**
+     * Pairs of the children of a bucket found in its cell
+     */
+    protected void scan(int b, Pairs found){
+        final int[] members = this.buckets[b];
+        final int[] ranges = this.ranges;
+        final int end = this.fill[b];
+        if (1 < end){
+            final int k = (3*b);
+            final int cx = this.keys[k], cy = this.keys[k+1], cz = this.keys[k+2];
+            for (int m = 0; m < end; m++){
+                final int a = members[m], ra = (6*a);
+                for (int n = m+1; n < end; n++){
+                    final int o = members[n], ro = (6*o);
+                    if (cx == Math.max(ranges[ra],ranges[ro]) &&
+                        cy == Math.max(ranges[ra+1],ranges[ro+1]) &&
+                        cz == Math.max(ranges[ra+2],ranges[ro+2]) &&
+                        this.overlaps(a,o))
+                    {
+                        found.add(Pair(a,o));
+                    }
+                }
+            }
+        }
+    }
+    /**
+     * Compute the box and cell range of the child
+     *
+     * @return The child is placed
+     */
+    protected boolean box(Spacetime child, int idx){
+        final float[] box = new float[6];
+        if (Box(child,this.margin,box)){
+            final int r = (6*idx);
+            System.arraycopy(box,0,this.boxes,r,6);
+            for (int dim = 0; dim < 6; dim++){
+                this.ranges[r+dim] = Key.IndexRep(box[dim],this.resolution);
+            }
+            return true;
+        }
+        else {
+            this.boxes[6*idx] = Float.NaN;
+            return false;
+        }
+    }
+    protected final boolean placed(int idx){
+        final float x0 = this.boxes[6*idx];
+        return (x0 == x0);
+    }
+    protected final boolean equals(int idx, float[] box){
+        final int r = (6*idx);
+        final float[] boxes = this.boxes;
+        for (int dim = 0; dim < 6; dim++){
+            if (boxes[r+dim] != box[dim])
+                return false;
+        }
+        return true;
+    }
+    protected final boolean overlaps(int a, int b){
+        final float[] boxes = this.boxes;
+        final int ra = (6*a), rb = (6*b);
+        return (boxes[ra] <= boxes[rb+3] && boxes[rb] <= boxes[ra+3] &&
+                boxes[ra+1] <= boxes[rb+4] && boxes[rb+1] <= boxes[ra+4] &&
+                boxes[ra+2] <= boxes[rb+5] && boxes[rb+2] <= boxes[ra+5]);
+    }
+    /**
+     * List a placed child in the cells of its range, or as large
+     */
+    protected void insert(int idx){
+        final int[] ranges = this.ranges;
+        final int r = (6*idx);
+        if (Large < Cells(ranges,r))
+            this.large.add(idx);
+        else {
+            for (int cx = ranges[r]; cx <= ranges[r+3]; cx++){
+                for (int cy = ranges[r+1]; cy <= ranges[r+4]; cy++){
+                    for (int cz = ranges[r+2]; cz <= ranges[r+5]; cz++){
+
+                        int b = this.cells.add(cx,cy,cz,0,this.count);
+                        if (-1 == b){
+                            b = this.count++;
+                            if (b == this.buckets.length){
+                                final int[][] copier = new int[b<<1][];
+                                System.arraycopy(this.buckets,0,copier,0,b);
+                                this.buckets = copier;
+                                this.fill = Grow(this.fill,(b<<1));
+                                this.keys = Grow(this.keys,(6*b));
+                            }
+                            this.buckets[b] = new int[4];
+                            this.fill[b] = 0;
+                            this.keys[3*b] = cx;
+                            this.keys[3*b+1] = cy;
+                            this.keys[3*b+2] = cz;
+                        }
+                        int[] members = this.buckets[b];
+                        final int f = this.fill[b];
+                        if (f == members.length){
+                            members = Grow(members,(f<<1));
+                            this.buckets[b] = members;
+                        }
+                        members[f] = idx;
+                        this.fill[b] = (f+1);
+                    }
+                }
+            }
+        }
+    }
+    /**
+     * Remove a placed child from the cells of its range, or from the
+     * large children
+     */
+    protected void delete(int idx){
+        final int[] ranges = this.ranges;
+        final int r = (6*idx);
+        if (Large < Cells(ranges,r))
+            this.large.remove(idx);
+        else {
+            for (int cx = ranges[r]; cx <= ranges[r+3]; cx++){
+                for (int cy = ranges[r+1]; cy <= ranges[r+4]; cy++){
+                    for (int cz = ranges[r+2]; cz <= ranges[r+5]; cz++){
+
+                        final int b = this.cells.get(cx,cy,cz,0);
+                        if (-1 < b){
+                            final int[] members = this.buckets[b];
+                            final int end = (this.fill[b]-1);
+                            for (int m = 0; m <= end; m++){
+                                if (idx == members[m]){
+                                    members[m] = members[end];
+                                    this.fill[b] = end;
+                                    break;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Bucket range task
+     */
+    protected class Scan
+        extends RecursiveTask<Pairs>
+    {
+        protected final int start, end;
+
+
+        protected Scan(int start, int end){
+            super();
+            this.start = start;
+            this.end = end;
+        }
+
+
+        protected Pairs compute(){
+            final int start = this.start, end = this.end;
+            if (Threshold >= (end-start)){
+                final Pairs found = new Pairs();
+                for (int b = start; b < end; b++){
+
+                    Collider.this.scan(b,found);
+                }
+                return found;
+            }
+            else {
+                final int middle = ((start+end)>>>1);
+
+                final Scan lo = new Scan(start,middle);
+                final Scan hi = new Scan(middle,end);
+                hi.fork();
+                final Pairs found = lo.compute();
+                found.add(hi.join());
+                return found;
+            }
+        }
+    }
+    /**
+     * Growable list of pairs
+     */
+    protected final static class Pairs
+        extends Object
+    {
+        protected long[] list = new long[16];
+
+        protected int count;
+
+
+        protected Pairs(){
+            super();
+        }
+
+
+        protected void add(long pair){
+            if (this.count == this.list.length){
+                final long[] copier = new long[this.count<<1];
+                System.arraycopy(this.list,0,copier,0,this.count);
+                this.list = copier;
+            }
+            this.list[this.count++] = pair;
+        }
+        protected void add(Pairs pairs){
+            for (int p = 0; p < pairs.count; p++){
+                this.add(pairs.list[p]);
+            }
+        }
+        protected void remove(long value){
+            for (int p = 0; p < this.count; p++){
+                if (value == this.list[p]){
+                    this.list[p] = this.list[--this.count];
+                    return;
+                }
+            }
+        }
+        protected long[] sorted(){
+            final long[] sorted = new long[this.count];
+            System.arraycopy(this.list,0,sorted,0,this.count);
+            java.util.Arrays.sort(sorted);
+            return sorted;
+        }
+
+        /**
+         * @return Union of two ascending lists
+         */
+        protected final static long[] Merge(long[] a, int an, long[] b){
+            final int bn = b.length;
+            final long[] merge = new long[an+bn];
+            int ac = 0, bc = 0, mc = 0;
+            while (ac < an && bc < bn){
+                if (a[ac] <= b[bc])
+                    merge[mc++] = a[ac++];
+                else
+                    merge[mc++] = b[bc++];
+            }
+            while (ac < an)
+                merge[mc++] = a[ac++];
+            while (bc < bn)
+                merge[mc++] = b[bc++];
+            return merge;
+        }
+    }
+
+    /**
+     * @return Pair with the lesser index first
+     */
+    protected final static long Pair(int a, int b){
+        if (a < b)
+            return ((((long)a)<<32)|b);
+        else
+            return ((((long)b)<<32)|a);
+    }
+    /**
+     * @return Number of cells in the range
+     */
+    protected final static long Cells(int[] ranges, int r){
+        return (((long)ranges[r+3]-ranges[r]+1L)*((long)ranges[r+4]-ranges[r+1]+1L)*((long)ranges[r+5]-ranges[r+2]+1L));
+    }
+    /**
+     * @param box Box { x0, y0, z0, x1, y1, z1 } of the child grown by
+     * the margin
+     * @return The child is placed
+     */
+    protected final static boolean Box(Spacetime child, float margin, float[] box){
+        if (null == child)
+            return false;
+        else {
+            float x0 = Float.NaN, y0 = Float.NaN, z0 = Float.NaN;
+            float x1 = Float.NaN, y1 = Float.NaN, z1 = Float.NaN;
+            if (null != child.x && null != child.y){
+                x0 = x1 = child.x.floatValue();
+                y0 = y1 = child.y.floatValue();
+                if (null != child.z)
+                    z0 = z1 = child.z.floatValue();
+            }
+            final SpacetimeBounds bounds = child.getSpacetimeBounds();
+            if (null != bounds){
+                x0 = Min(x0,bounds.x0); x1 = Max(x1,bounds.x1);
+                y0 = Min(y0,bounds.y0); y1 = Max(y1,bounds.y1);
+                z0 = Min(z0,bounds.z0); z1 = Max(z1,bounds.z1);
+            }
+            if (x0 == x0 && x1 == x1 && y0 == y0 && y1 == y1){
+                if (z0 != z0 || z1 != z1){
+                    z0 = 0f;
+                    z1 = 0f;
+                }
+                box[0] = (x0-margin);
+                box[1] = (y0-margin);
+                box[2] = (z0-margin);
+                box[3] = (x1+margin);
+                box[4] = (y1+margin);
+                box[5] = (z1+margin);
+                return true;
+            }
+            else
+                return false;
+        }
+    }
+    protected final static float Min(float value, Float bound){
+        if (null == bound)
+            return value;
+        else if (value != value)
+            return bound.floatValue();
+        else
+            return Math.min(value,bound.floatValue());
+    }
+    protected final static float Max(float value, Float bound){
+        if (null == bound)
+            return value;
+        else if (value != value)
+            return bound.floatValue();
+        else
+            return Math.max(value,bound.floatValue());
+    }
+    protected final static int[] Grow(int[] array, int length){
+        final int[] copier = new int[Math.max(length,array.length)];
+        System.arraycopy(array,0,copier,0,array.length);
+        return copier;
+    }
+    protected final static float[] Grow(float[] array, int length){
+        final float[] copier = new float[Math.max(length,array.length)];
+        System.arraycopy(array,0,copier,0,array.length);
+        return copier;
+    }
+    protected final static Spacetime[] Grow(Spacetime[] array, int length){
+        final Spacetime[] copier = new Spacetime[Math.max(length,array.length)];
+        System.arraycopy(array,0,copier,0,array.length);
+        return copier;
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Spacetime Standalone
+ * Copyright (C) 2013, John Pritchard.
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package spacetime.standalone;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Space time container for concurrent writers and readers.  Children
+ * are appended to a list of fixed size chunks, and indexed by {@link
+ * Key} cell and by runtime key in concurrent hash tables, so that
+ * lookups never block and writers contend only within a table
+ * segment.  Growing the chunk directory is the only exclusive
+ * section.
+ *
+ * <pre>
+ * chunks   { chunk }                  directory, copied to grow
+ * chunk    { child }                  per list index
+ * stx      { key : index }            per cell
+ * rtx      { key : index }            per runtime key
+ * </pre>
+ *
+ * <p> A list index is claimed before its child is stored, so that
+ * the size may include indeces for which {@link #get(int)} returns
+ * null while a writer completes.  When two writers race to put a new
+ * cell, the loser's claimed index is left empty and its child
+ * replaces the winner's, as for a sequence of puts.  Iteration skips
+ * empty indeces. </p>
+ *
+ * <p> The {@link #toSpacetime()} method copies the children into a
+ * {@link Spacetime} for queries, following ingestion. </p>
+ *
+ * @see Spacetime
+ */
+public class ConcurrentSpacetime<E extends Enum<E>>
+    extends Object
+    implements spacetime.SpacetimeObject<java.lang.Float>,
+               spacetime.Spacetime<java.lang.Float,Spacetime<E>>
+{
+    /**
+     * Chunk length bits
+     */
+    protected final static int Shift = 10;
+    /**
+     * Chunk length
+     */
+    protected final static int Chunk = (1<<Shift);
+
+    protected final static int Mask = (Chunk-1);
+
+
+    protected final Float x, y, z, t;
+    /**
+     * Multiply ordinals by resolution for index
+     */
+    protected final float resolution;
+
+    protected final AtomicInteger count = new AtomicInteger();
+
+    protected volatile AtomicReferenceArray[] chunks = new AtomicReferenceArray[0];
+
+    protected final ConcurrentHashMap<Key,Integer> stx = new ConcurrentHashMap<Key,Integer>();
+
+    protected final ConcurrentHashMap<Comparable,Integer> rtx = new ConcurrentHashMap<Comparable,Integer>();
+
+
+    public ConcurrentSpacetime(){
+        this(1.0f);
+    }
+    /**
+     * @param resolution Index resolution
+     */
+    public ConcurrentSpacetime(float resolution){
+        this(null,null,null,null,resolution);
+    }
+    public ConcurrentSpacetime(Float x, Float y, Float z, Float t, float resolution){
+        super();
+        if (0f != resolution && resolution == resolution){
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.t = t;
+            this.resolution = Math.abs(resolution);
+        }
+        else
+            throw new IllegalArgumentException(String.valueOf(resolution));
+    }
+
+
+    public spacetime.SpacetimeFrame<Float> getSpacetimeFrame(){
+        return null;
+    }
+    public Float getSpacetimeX(){
+        return this.x;
+    }
+    public Float getSpacetimeY(){
+        return this.y;
+    }
+    public Float getSpacetimeZ(){
+        return this.z;
+    }
+    public Float getSpacetimeT(){
+        return this.t;
+    }
+    /**
+     * @return Extent of the coordinates and bounds of the children
+     * present, excluding null ordinates, or null for none
+     */
+    public SpacetimeBounds getSpacetimeBounds(){
+        final SpacetimeBounds bounds = new SpacetimeBounds();
+        boolean included = false;
+
+        for (int idx = 0, size = this.size(); idx < size; idx++){
+
+            final Spacetime<E> child = this.get(idx);
+            if (null != child){
+
+                included |= bounds.include(child);
+
+                final SpacetimeBounds cb = child.getSpacetimeBounds();
+                if (null != cb)
+                    included |= bounds.include(cb);
+            }
+        }
+        if (included)
+            return bounds;
+        else
+            return null;
+    }
+    public SpacetimeMotion getSpacetimeMotion(){
+        return null;
+    }
+    public final float getResolution(){
+        return this.resolution;
+    }
+    /**
+     * @return Number of claimed list indeces
+     */
+    public final int size(){
+        return this.count.get();
+    }
+    public final boolean isEmpty(){
+        return (0 == this.count.get());
+    }
+    /**
+     * @return Child, or null
+     */
+    public Spacetime<E> get(int idx){
+        if (-1 < idx && idx < this.count.get()){
+
+            final AtomicReferenceArray[] chunks = this.chunks;
+            final int c = (idx>>>Shift);
+            if (c < chunks.length)
+                return (Spacetime<E>)chunks[c].get(idx & Mask);
+        }
+        return null;
+    }
+    /**
+     * Indexed space time list
+     */
+    public <R extends Spacetime<E>> R get(Float x, Float y, Float z, Float t){
+
+        return (R)this.get(this.stx,Key.For(x,y,z,t,this.resolution));
+    }
+    /**
+     * Indexed space time list
+     */
+    public <R extends Spacetime<E>> R lookup(float x, float y, float z, float t){
+
+        return (R)this.get(this.stx,new Key(x,y,z,t,this.resolution));
+    }
+    /**
+     * Indexed space time list, replacing the child in the cell.
+     */
+    public <R extends Spacetime<E>> R put(R p){
+
+        this.put(this.stx,Key.For(p.x,p.y,p.z,p.t,this.resolution),p);
+
+        return p;
+    }
+    /**
+     * Indexed space time list, appending to the list without
+     * replacement.  The first child indexed in a cell is retained.
+     */
+    public <R extends Spacetime<E>> R append(R p){
+
+        final int idx = this.claim(p);
+
+        this.stx.putIfAbsent(Key.For(p.x,p.y,p.z,p.t,this.resolution),idx);
+
+        return p;
+    }
+    /**
+     * Indexed space time list, as for {@link #put(Spacetime)} in
+     * order.
+     */
+    public <R extends Spacetime<E>> void putAll(java.util.Collection<R> list){
+
+        for (R p: list){
+
+            this.put(p);
+        }
+    }
+    /**
+     * Runtime key list
+     */
+    public <K extends Comparable<K>, R extends Spacetime<E>> R get(K k){
+
+        return (R)this.get(this.rtx,k);
+    }
+    /**
+     * Runtime key list
+     */
+    public <K extends Comparable<K>, R extends Spacetime<E>> R put(K k, R p){
+
+        this.put(this.rtx,k,p);
+
+        return p;
+    }
+    /**
+     * @return List for iteration
+     */
+    public <R extends Spacetime<E>> java.lang.Iterable<R> iterable(){
+        return (Iterable<R>)this;
+    }
+    /**
+     * Weakly consistent iteration over the children present, in list
+     * order.
+     */
+    public java.util.Iterator<Spacetime<E>> iterator(){
+
+        return new java.util.Iterator<Spacetime<E>>(){
+
+            private int index = -1;
+
+            private Spacetime<E> next = this.advance();
+
+
+            private Spacetime<E> advance(){
+                final int size = ConcurrentSpacetime.this.size();
+                while (++this.index < size){
+                    final Spacetime<E> child = ConcurrentSpacetime.this.get(this.index);
+                    if (null != child)
+                        return child;
+                }
+                return null;
+            }
+            public boolean hasNext(){
+                return (null != this.next);
+            }
+            public Spacetime<E> next(){
+                final Spacetime<E> next = this.next;
+                if (null != next){
+                    this.next = this.advance();
+                    return next;
+                }
+                else
+                    throw new java.util.NoSuchElementException();
+            }
+            public void remove(){
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+    /**
+     * Copy the children present into a container in list order,
+     * indexed as by {@link Spacetime#append(Spacetime)}.
+     */
+    public Spacetime<E> toSpacetime(){
+
+        final java.util.ArrayList<Spacetime<E>> list = new java.util.ArrayList<Spacetime<E>>(this.size());
+        for (Spacetime<E> child: this){
+
+            list.add(child);
+        }
+        final Spacetime<E> copy = new Spacetime<E>(this.x,this.y,this.z,this.t,this.resolution);
+
+        copy.addAll(list);
+
+        final SpatialHash stx = copy.stx();
+        stx.ensure(list.size());
+
+        for (int idx = 0, size = list.size(); idx < size; idx++){
+            final Spacetime<E> child = list.get(idx);
+
+            stx.add(child.x,child.y,child.z,child.t,idx);
+        }
+        return copy;
+    }
+    /**
+     * @return Child indexed by the key, or null
+     */
+    protected <K> Spacetime<E> get(ConcurrentHashMap<K,Integer> index, K key){
+
+        final Integer idx = index.get(key);
+        if (null == idx)
+            return null;
+        else
+            return this.get(idx.intValue());
+    }
+    /**
+     * Replace the child indexed by the key, or claim an index for a
+     * new key.
+     */
+    protected <K> void put(ConcurrentHashMap<K,Integer> index, K key, Spacetime<E> p){
+
+        final Integer idx = index.get(key);
+        if (null != idx)
+            this.store(idx.intValue(),p);
+        else {
+            final int claim = this.claim(null);
+
+            final Integer existing = index.putIfAbsent(key,claim);
+            if (null == existing)
+                this.store(claim,p);
+            else
+                this.store(existing.intValue(),p);
+        }
+    }
+    /**
+     * @return New list index, holding the child
+     */
+    protected int claim(Spacetime<E> p){
+
+        final int idx = this.count.getAndIncrement();
+        if (0 > idx)
+            throw new IllegalStateException(String.format("List index overflow %d",idx));
+        else {
+            if (null != p)
+                this.store(idx,p);
+            else
+                this.chunk(idx>>>Shift);
+
+            return idx;
+        }
+    }
+    protected void store(int idx, Spacetime<E> p){
+
+        this.chunk(idx>>>Shift).set((idx & Mask),p);
+    }
+    /**
+     * @return Chunk, growing the directory as needed
+     */
+    protected AtomicReferenceArray chunk(int c){
+        AtomicReferenceArray[] chunks = this.chunks;
+        if (c < chunks.length)
+            return chunks[c];
+        else {
+            synchronized(this){
+                chunks = this.chunks;
+                if (c >= chunks.length){
+                    final AtomicReferenceArray[] copier = new AtomicReferenceArray[Math.max((c+1),(chunks.length<<1))];
+                    System.arraycopy(chunks,0,copier,0,chunks.length);
+                    for (int cc = chunks.length; cc < copier.length; cc++){
+                        copier[cc] = new AtomicReferenceArray(Chunk);
+                    }
+                    this.chunks = copier;
+                    chunks = copier;
+                }
+                return chunks[c];
+            }
+        }
+    }
+}
@@ -0,0 +1,630 @@
+/*
+ * Spacetime Standalone
+ * Copyright (C) 2013, John Pritchard.
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package spacetime.standalone;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decimal number scanner producing primitive floats from bytes or
+ * characters in place.  An instance is reused for a sequence of
+ * numbers, and scanning a number produces no objects.
+ *
+ * <p> The decimal and exponent forms, for example "-6.9415" and
+ * "3.33067e-16", are accumulated into a long mantissa and a power of
+ * ten exponent.  Conversion is correctly rounded: float or double
+ * arithmetic covers all but the values falling within a hair of the
+ * midpoint between two floats, and those rare cases defer to {@link
+ * java.lang.Float#parseFloat(String)}.
+ * The words "nan", "inf" and "infinity" are recognized in any
+ * case. </p>
+ *
+ * @see STLScanner
+ */
+public class Decimal
+    extends Object
+{
+    /**
+     * Mantissa digits accumulated exactly in a long
+     */
+    protected final static int Digits = 18;
+    /**
+     * Units of the last place of a double from a float midpoint
+     * within which the double product is not trusted
+     */
+    protected final static long Margin = 64L;
+    /**
+     * Powers of ten exactly representable in float
+     */
+    protected final static float[] Pow10f = {
+        1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+    /**
+     * Powers of ten exactly representable in double
+     */
+    protected final static double[] Pow10d = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+        1e21, 1e22
+    };
+
+
+    /**
+     * Powers of ten in long
+     */
+    protected final static long[] Pow10l = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+        100000000L, 1000000000L, 10000000000L
+    };
+    /**
+     * Significant digits sufficient to distinguish every float
+     */
+    protected final static int FloatDigits = 9;
+    /**
+     * Maximum length of a formatted float
+     */
+    public final static int FormatLength = 16;
+
+
+    /**
+     * Position following the most recently scanned number
+     */
+    public int end;
+
+
+    public Decimal(){
+        super();
+    }
+
+
+    /**
+     * Scan a number from the buffer with absolute reads, skipping
+     * leading spaces and tabs.
+     *
+     * @param buf Source
+     * @param pos Start position
+     * @param lim End position, exclusive
+     * @exception java.lang.NumberFormatException Missing number
+     */
+    public float scan(ByteBuffer buf, int pos, int lim){
+
+        byte ch = 0;
+        while (pos < lim && (' ' == (ch = buf.get(pos)) || '\t' == ch))
+            pos += 1;
+
+        final int start = pos;
+
+        boolean neg = false;
+        if (pos < lim){
+            switch(buf.get(pos)){
+            case '-':
+                neg = true;
+            case '+':
+                pos += 1;
+                break;
+            default:
+                break;
+            }
+        }
+        long mantissa = 0;
+        int digits = 0, exp = 0;
+        boolean fract = false, sticky = false, some = false;
+        ch = 0;
+        scan:
+        while (pos < lim){
+            ch = buf.get(pos);
+            if ('0' <= ch && '9' >= ch){
+                some = true;
+                if (0 != mantissa || '0' != ch){
+                    if (Digits > digits){
+                        mantissa = (mantissa*10)+(ch-'0');
+                        digits += 1;
+                        if (fract)
+                            exp -= 1;
+                    }
+                    else {
+                        if ('0' != ch)
+                            sticky = true;
+                        if (!fract)
+                            exp += 1;
+                    }
+                }
+                else if (fract)
+                    exp -= 1;
+            }
+            else if ('.' == ch && !fract)
+                fract = true;
+            else
+                break scan;
+
+            pos += 1;
+        }
+        if (!some){
+            /*
+             * Not a number
+             */
+            pos = start;
+            if (pos < lim){
+                switch(buf.get(pos)){
+                case '-':
+                case '+':
+                    pos += 1;
+                default:
+                    break;
+                }
+            }
+            final int len = Word(buf,pos,lim);
+            if (3 == len && Word(buf,pos,"nan")){
+                this.end = (pos+len);
+                return Float.NaN;
+            }
+            else if ((3 == len && Word(buf,pos,"inf")) || (8 == len && Word(buf,pos,"infinity"))){
+                this.end = (pos+len);
+                return (neg)?(Float.NEGATIVE_INFINITY):(Float.POSITIVE_INFINITY);
+            }
+            else
+                throw new NumberFormatException("missing number");
+        }
+        else if (('e' == ch || 'E' == ch) && pos < lim){
+            pos += 1;
+            boolean eneg = false;
+            if (pos < lim){
+                switch(buf.get(pos)){
+                case '-':
+                    eneg = true;
+                case '+':
+                    pos += 1;
+                    break;
+                default:
+                    break;
+                }
+            }
+            int e = 0;
+            while (pos < lim && '0' <= (ch = buf.get(pos)) && '9' >= ch){
+                if (100000 > e)
+                    e = (e*10)+(ch-'0');
+                pos += 1;
+            }
+            exp += (eneg)?(-e):(e);
+        }
+        this.end = pos;
+
+        final float value = Convert(neg,mantissa,digits,exp,sticky);
+        if (value == value)
+            return value;
+        else {
+            final byte[] text = new byte[pos-start];
+            for (int cc = 0; cc < text.length; cc++){
+                text[cc] = buf.get(start+cc);
+            }
+            return Float.parseFloat(new String(text,STL.ASCII));
+        }
+    }
+    /**
+     * Scan a number from the characters in place, skipping leading
+     * spaces and tabs.
+     *
+     * @param src Source
+     * @param pos Start position
+     * @param lim End position, exclusive
+     * @exception java.lang.NumberFormatException Missing number
+     */
+    public float scan(CharSequence src, int pos, int lim){
+
+        char ch = 0;
+        while (pos < lim && (' ' == (ch = src.charAt(pos)) || '\t' == ch))
+            pos += 1;
+
+        final int start = pos;
+
+        boolean neg = false;
+        if (pos < lim){
+            switch(src.charAt(pos)){
+            case '-':
+                neg = true;
+            case '+':
+                pos += 1;
+                break;
+            default:
+                break;
+            }
+        }
+        long mantissa = 0;
+        int digits = 0, exp = 0;
+        boolean fract = false, sticky = false, some = false;
+        ch = 0;
+        scan:
+        while (pos < lim){
+            ch = src.charAt(pos);
+            if ('0' <= ch && '9' >= ch){
+                some = true;
+                if (0 != mantissa || '0' != ch){
+                    if (Digits > digits){
+                        mantissa = (mantissa*10)+(ch-'0');
+                        digits += 1;
+                        if (fract)
+                            exp -= 1;
+                    }
+                    else {
+                        if ('0' != ch)
+                            sticky = true;
+                        if (!fract)
+                            exp += 1;
+                    }
+                }
+                else if (fract)
+                    exp -= 1;
+            }
+            else if ('.' == ch && !fract)
+                fract = true;
+            else
+                break scan;
+
+            pos += 1;
+        }
+        if (!some){
+            /*
+             * Not a number
+             */
+            pos = start;
+            if (pos < lim){
+                switch(src.charAt(pos)){
+                case '-':
+                case '+':
+                    pos += 1;
+                default:
+                    break;
+                }
+            }
+            final int len = Word(src,pos,lim);
+            if (3 == len && Word(src,pos,"nan")){
+                this.end = (pos+len);
+                return Float.NaN;
+            }
+            else if ((3 == len && Word(src,pos,"inf")) || (8 == len && Word(src,pos,"infinity"))){
+                this.end = (pos+len);
+                return (neg)?(Float.NEGATIVE_INFINITY):(Float.POSITIVE_INFINITY);
+            }
+            else
+                throw new NumberFormatException("missing number");
+        }
+        else if (('e' == ch || 'E' == ch) && pos < lim){
+            pos += 1;
+            boolean eneg = false;
+            if (pos < lim){
+                switch(src.charAt(pos)){
+                case '-':
+                    eneg = true;
+                case '+':
+                    pos += 1;
+                    break;
+                default:
+                    break;
+                }
+            }
+            int e = 0;
+            while (pos < lim && '0' <= (ch = src.charAt(pos)) && '9' >= ch){
+                if (100000 > e)
+                    e = (e*10)+(ch-'0');
+                pos += 1;
+            }
+            exp += (eneg)?(-e):(e);
+        }
+        this.end = pos;
+
+        final float value = Convert(neg,mantissa,digits,exp,sticky);
+        if (value == value)
+            return value;
+        else
+            return Float.parseFloat(src.subSequence(start,pos).toString());
+    }
+
+    /**
+     * Correctly rounded conversion of <code>mantissa * 10^exp</code>.
+     *
+     * @param neg Negative sign
+     * @param mantissa Leading decimal digits
+     * @param digits Number of digits in the mantissa
+     * @param exp Power of ten exponent
+     * @param sticky Nonzero digits were dropped from the mantissa
+     * @return Value, or NaN when the value is too close to a
+     * rounding boundary to be determined from the mantissa, and the
+     * complete text must be converted
+     */
+    protected final static float Convert(boolean neg, long mantissa, int digits, int exp, boolean sticky){
+        float value;
+        if (0L == mantissa)
+            value = 0f;
+
+        else if (-64 > (digits+exp))
+            value = 0f;
+
+        else if (40 < (digits+exp))
+            value = Float.POSITIVE_INFINITY;
+
+        else if (!sticky && (1L<<24) > mantissa && -10 <= exp && 10 >= exp){
+            /*
+             * Exact operands in float produce a correctly rounded
+             * result
+             */
+            if (0 > exp)
+                value = (mantissa / Pow10f[-exp]);
+            else
+                value = (mantissa * Pow10f[exp]);
+        }
+        else {
+            /*
+             * The double product of the mantissa and powers of ten
+             * is within a few units of the last place of the exact
+             * value.  Rounding that to float is correct unless the
+             * double falls near the midpoint between two floats,
+             * where the error may cross the midpoint, or within the
+             * subnormal floats.
+             */
+            double d = mantissa;
+            int e = exp;
+            while (22 < e){
+                d *= Pow10d[22];
+                e -= 22;
+            }
+            while (-22 > e){
+                d /= Pow10d[22];
+                e += 22;
+            }
+            if (0 > e)
+                d /= Pow10d[-e];
+            else
+                d *= Pow10d[e];
+
+            final long midpoint = ((Double.doubleToRawLongBits(d) & 0x1FFFFFFFL) - 0x10000000L);
+
+            if (Float.MIN_NORMAL > d || (Margin > midpoint && -Margin < midpoint))
+
+                return Float.NaN;
+            else
+                value = (float)d;
+        }
+        return (neg)?(-value):(value);
+    }
+    /**
+     * Write the shortest decimal that scans to the same float.
+     * Numbers of magnitude from 1e-5 to 1e7 are written in plain
+     * decimal form, and others in exponent form with two exponent
+     * digits, as "3.33067e-16" and "1e07".
+     * No objects are produced.
+     * 
+     * @param value Number to format
+     * @param buf Destination with at least {@link #FormatLength}
+     * bytes available at the offset
+     * @param ofs Destination offset
+     * @return Offset following the number
+     */
+    public final static int Format(float value, byte[] buf, int ofs){
+
+        if (value != value){
+            buf[ofs++] = 'n';
+            buf[ofs++] = 'a';
+            buf[ofs++] = 'n';
+            return ofs;
+        }
+        else {
+            if (0 != (Float.floatToRawIntBits(value) & 0x80000000)){
+                buf[ofs++] = '-';
+                value = -value;
+            }
+
+            if (0f == value){
+                buf[ofs++] = '0';
+                return ofs;
+            }
+            else if (Float.POSITIVE_INFINITY == value){
+                buf[ofs++] = 'i';
+                buf[ofs++] = 'n';
+                buf[ofs++] = 'f';
+                return ofs;
+            }
+            else {
+                final double v = value;
+                /*
+                 * Decimal exponent of the leading digit
+                 */
+                int lead = (int)Math.floor(Math.log10(v));
+                long digits = 0L;
+                int count = 0, exp = 0;
+
+                for (count = 1; count <= FloatDigits; count++){
+
+                    exp = (lead-count+1);
+                    digits = Math.round(Scale(v,-exp));
+
+                    if (Pow10l[count] <= digits){
+                        /*
+                         * Underestimated lead
+                         */
+                        if (Pow10l[count] < digits){
+                            lead += 1;
+                            exp += 1;
+                            digits = Math.round(Scale(v,-exp));
+                        }
+                        /*
+                         * Rounded up to the next power of ten, at
+                         * this count only, as the lead of the value
+                         * is unchanged
+                         */
+                        if (Pow10l[count] <= digits){
+                            digits /= 10;
+                            exp += 1;
+                        }
+                    }
+                    else if (Pow10l[count-1] > digits){
+                        /*
+                         * Overestimated lead
+                         */
+                        lead -= 1;
+                        count -= 1;
+                        continue;
+                    }
+                    if (FloatDigits == count || RoundTrip(value,digits,exp))
+                        break;
+                }
+                while (1 < count && 0L == (digits % 10)){
+                    digits /= 10;
+                    count -= 1;
+                    exp += 1;
+                }
+                lead = (exp+count-1);
+
+                if (-5 <= lead && 7 > lead){
+
+                    if (0 > lead){
+                        buf[ofs++] = '0';
+                        buf[ofs++] = '.';
+                        for (int cc = -1; cc > lead; cc--){
+                            buf[ofs++] = '0';
+                        }
+                        return Digits(digits,count,-1,buf,ofs);
+                    }
+                    else if (lead >= (count-1)){
+
+                        ofs = Digits(digits,count,-1,buf,ofs);
+                        for (int cc = (count-1); cc < lead; cc++){
+                            buf[ofs++] = '0';
+                        }
+                        return ofs;
+                    }
+                    else
+                        return Digits(digits,count,lead+1,buf,ofs);
+                }
+                else {
+                    ofs = Digits(digits,count,((1 < count)?(1):(-1)),buf,ofs);
+                    buf[ofs++] = 'e';
+                    if (0 > lead){
+                        buf[ofs++] = '-';
+                        lead = -lead;
+                    }
+                    buf[ofs++] = (byte)('0'+(lead/10));
+                    buf[ofs++] = (byte)('0'+(lead%10));
+                    return ofs;
+                }
+            }
+        }
+    }
+    /**
+     * @param digits Significant digits
+     * @param count Number of significant digits
+     * @param point Number of digits preceding the decimal point, or
+     * negative for none
+     */
+    protected final static int Digits(long digits, int count, int point, byte[] buf, int ofs){
+        final int end = (0 < point)?(ofs+count+1):(ofs+count);
+        int pos = end;
+        for (int cc = count; 0 < cc; cc--){
+            if (cc == point){
+                buf[--pos] = '.';
+            }
+            buf[--pos] = (byte)('0'+(digits % 10));
+            digits /= 10;
+        }
+        return end;
+    }
+    /**
+     * The decimal scans to the float when it falls between the
+     * midpoints to the neighboring floats, which are exact in
+     * double.  An inexact decimal within a few units of the last
+     * place of the double product from a midpoint is rejected.
+     * 
+     * @param value Positive float
+     * @param digits Decimal significand
+     * @param exp Decimal exponent
+     */
+    protected final static boolean RoundTrip(float value, long digits, int exp){
+
+        final double v = value;
+        final double lo = (v + Math.nextAfter(value,Double.NEGATIVE_INFINITY)) / 2.0;
+        final double hi = v + (Math.ulp(value) / 2.0);
+
+        final double d = Scale((double)digits,exp);
+
+        if (0 <= exp && 22 >= exp && (1L<<53) > digits){
+            /*
+             * Exact product, and a midpoint rounds to the even float
+             */
+            if (lo == d || hi == d)
+                return (0 == (Float.floatToRawIntBits(value) & 1));
+            else
+                return (lo < d && hi > d);
+        }
+        else {
+            final double margin = (Math.ulp(d) * 4.0);
+
+            return ((lo + margin) < d && (hi - margin) > d);
+        }
+    }
+    /**
+     * @return The value multiplied by the power of ten
+     */
+    protected final static double Scale(double value, int exp){
+        while (22 < exp){
+            value *= Pow10d[22];
+            exp -= 22;
+        }
+        while (-22 > exp){
+            value /= Pow10d[22];
+            exp += 22;
+        }
+        if (0 > exp)
+            return (value / Pow10d[-exp]);
+        else
+            return (value * Pow10d[exp]);
+    }
+    /**
+     * @return Length of the run of letters at the position
+     */
+    protected final static int Word(ByteBuffer buf, int pos, int lim){
+        int len = 0;
+        byte ch;
+        while (pos+len < lim && (('a' <= (ch = buf.get(pos+len)) && 'z' >= ch) || ('A' <= ch && 'Z' >= ch)))
+            len += 1;
+        return len;
+    }
+    protected final static int Word(CharSequence src, int pos, int lim){
+        int len = 0;
+        char ch;
+        while (pos+len < lim && (('a' <= (ch = src.charAt(pos+len)) && 'z' >= ch) || ('A' <= ch && 'Z' >= ch)))
+            len += 1;
+        return len;
+    }
+    /**
+     * @param word Lower case word
+     * @return Case insensitive match at the position
+     */
+    protected final static boolean Word(ByteBuffer buf, int pos, String word){
+        for (int cc = 0, len = word.length(); cc < len; cc++){
+            if (word.charAt(cc) != (buf.get(pos+cc)|0x20))
+                return false;
+        }
+        return true;
+    }
+    protected final static boolean Word(CharSequence src, int pos, String word){
+        for (int cc = 0, len = word.length(); cc < len; cc++){
+            if (word.charAt(cc) != (src.charAt(pos+cc)|0x20))
+                return false;
+        }
+        return true;
+    }
+}
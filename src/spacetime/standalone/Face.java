@@ -171,7 +171,7 @@ public class Face
     public <R extends Spacetime> R a(R a){
         if (0 == this.size()){
 
-            this.put(a);
+            this.append(a);
             return a;
         }
         else
@@ -180,7 +180,7 @@ public class Face
     public <R extends Spacetime> R b(R b){
         if (1 == this.size()){
 
-            this.put(b);
+            this.append(b);
             return b;
         }
         else
@@ -189,7 +189,7 @@ public class Face
     public <R extends Spacetime> R c(R c){
         if (2 == this.size()){
 
-            this.put(c);
+            this.append(c);
             return c;
         }
         else
@@ -199,7 +199,7 @@ public class Face
         final int end = this.size();
         if (0 <= end && 3 > end){
 
-            this.put(v);
+            this.append(v);
             return v;
         }
         else
@@ -235,4 +235,44 @@ public class Face
         }
         return f;
     }
+    /**
+     * @param list Add or index each face according the face index
+     * enum, in order
+     */
+    public <R extends Face> void faces(java.util.Collection<R> list){
+
+        switch(this.facex){
+        case IndexCentroid:
+            throw new UnsupportedOperationException("alt.todo");
+        case FaceList:
+            this.addAll(list);
+            break;
+        default:
+            final java.util.ArrayList<Spacetime> vertices = new java.util.ArrayList<Spacetime>((FaceIndex.IndexABC == this.facex)?(3*list.size()):(list.size()));
+
+            for (R f: list){
+
+                switch(this.facex){
+                case IndexA:
+                    vertices.add(f.a());
+                    break;
+                case IndexB:
+                    vertices.add(f.b());
+                    break;
+                case IndexC:
+                    vertices.add(f.c());
+                    break;
+                case IndexABC:
+                    vertices.add(f.a());
+                    vertices.add(f.b());
+                    vertices.add(f.c());
+                    break;
+                default:
+                    throw new IllegalStateException(this.facex.name());
+                }
+            }
+            this.putAll(vertices);
+            break;
+        }
+    }
 }
@@ -0,0 +1,313 @@
+/*
+ * Spacetime Standalone
+ * Copyright (C) 2013, John Pritchard.
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package spacetime.standalone;
+
+/**
+ * Immutable form of a {@link Spacetime} container for concurrent
+ * readers.  The children are held in an array by list index, the
+ * cells of the space time index are sorted in the order of the key
+ * scheme into a flat array, and the runtime keys are sorted into an
+ * array, each with an array of list indeces.
+ *
+ * <pre>
+ * children  { child }                  per list index
+ * cells     { x, y, z, t }             per cell, in scheme order
+ * cellx     { index }                  per cell
+ * table     { cell }                   per slot, or empty
+ * keys      { key }                    in key order
+ * keyx      { index }                  per key
+ * </pre>
+ *
+ * <p> Cells are found through a table of positions in the sorted
+ * cells, probed linearly from the hash of the scheme at no more than
+ * half load, and runtime keys by binary search.  Lookups with
+ * primitive ordinates allocate nothing. </p>
+ *
+ * <p> All fields are final, so that a frozen container is safely
+ * shared between threads without locks.  The children are copy on
+ * write clones of the children of the container frozen, with their
+ * own motion, so that later updates to the container, including
+ * {@link Spacetime#advance(float,java.util.concurrent.ForkJoinPool)},
+ * do not reach them. </p>
+ *
+ * @see Spacetime#freeze()
+ */
+public class FrozenSpacetime<E extends Enum<E>>
+    extends Object
+    implements spacetime.SpacetimeObject<java.lang.Float>,
+               spacetime.Spacetime<java.lang.Float,Spacetime<E>>
+{
+    protected final spacetime.SpacetimeFrame<Float> frame;
+
+    protected final Float x, y, z, t;
+
+    protected final SpacetimeBounds bounds;
+
+    protected final SpacetimeMotion motion;
+    /**
+     * Multiply ordinals by resolution for index
+     */
+    protected final float resolution;
+
+    protected final Key.Scheme scheme;
+
+    protected final Spacetime<E>[] children;
+
+    protected final int[] cells;
+
+    protected final int[] cellx;
+
+    protected final int[] table;
+
+    protected final Comparable[] keys;
+
+    protected final int[] keyx;
+
+
+    /**
+     * @param container Container to copy
+     */
+    public FrozenSpacetime(Spacetime<E> container){
+        super();
+        if (null != container){
+            this.frame = container.getSpacetimeFrame();
+            this.x = container.x;
+            this.y = container.y;
+            this.z = container.z;
+            this.t = container.t;
+            final SpacetimeBounds bounds = container.getSpacetimeBounds();
+            this.bounds = (null != bounds)?(new SpacetimeBounds(bounds)):(null);
+            this.motion = (null != container.motion)?(new SpacetimeMotion(container.motion)):(null);
+            this.resolution = container.resolution;
+            this.scheme = container.scheme;
+
+            final int size = container.size();
+            this.children = new Spacetime[size];
+            for (int idx = 0; idx < size; idx++){
+                final Spacetime<E> child = (Spacetime<E>)container.get(idx);
+                if (null != child)
+                    this.children[idx] = child.share();
+            }
+            /*
+             * Cells in scheme order
+             */
+            final Key[] cells = container.keys();
+            final int count = cells.length;
+            this.cells = new int[count<<2];
+            this.cellx = new int[count];
+            final SpatialHash stx = container.stx;
+            for (int cc = 0; cc < count; cc++){
+                final Key key = cells[cc];
+                final int k = (cc<<2);
+                this.cells[k] = key.x;
+                this.cells[k+1] = key.y;
+                this.cells[k+2] = key.z;
+                this.cells[k+3] = key.t;
+                this.cellx[cc] = stx.get(key.x,key.y,key.z,key.t);
+            }
+            /*
+             * Probe table of sorted cells
+             */
+            this.table = new int[SpatialHash.Capacity(count)];
+            java.util.Arrays.fill(this.table,SpatialHash.Empty);
+            final int mask = (this.table.length-1);
+            for (int cc = 0; cc < count; cc++){
+                final Key key = cells[cc];
+                int slot = (this.scheme.hash(key.x,key.y,key.z,key.t) & mask);
+                while (SpatialHash.Empty != this.table[slot])
+                    slot = ((slot+1) & mask);
+
+                this.table[slot] = cc;
+            }
+            /*
+             * Runtime keys in key order
+             */
+            final lxl.Index rtx = container.rtx;
+            if (null == rtx){
+                this.keys = new Comparable[0];
+                this.keyx = new int[0];
+            }
+            else {
+                final Comparable[] keys = new Comparable[rtx.size()];
+                int kc = 0;
+                for (Object key: rtx.keys()){
+                    keys[kc++] = (Comparable)key;
+                }
+                java.util.Arrays.sort(keys,Spacetime.KeyOrder);
+                this.keys = keys;
+                this.keyx = new int[keys.length];
+                for (kc = 0; kc < keys.length; kc++){
+                    this.keyx[kc] = rtx.get(keys[kc]);
+                }
+            }
+        }
+        else
+            throw new IllegalArgumentException();
+    }
+
+
+    public spacetime.SpacetimeFrame<Float> getSpacetimeFrame(){
+        return this.frame;
+    }
+    public Float getSpacetimeX(){
+        return this.x;
+    }
+    public Float getSpacetimeY(){
+        return this.y;
+    }
+    public Float getSpacetimeZ(){
+        return this.z;
+    }
+    public Float getSpacetimeT(){
+        return this.t;
+    }
+    /**
+     * @return Copy of the bounds of the container frozen
+     */
+    public SpacetimeBounds getSpacetimeBounds(){
+        if (null == this.bounds)
+            return null;
+        else
+            return new SpacetimeBounds(this.bounds);
+    }
+    public SpacetimeMotion getSpacetimeMotion(){
+        return this.motion;
+    }
+    public final float getResolution(){
+        return this.resolution;
+    }
+    public final Key.Scheme getKeyScheme(){
+        return this.scheme;
+    }
+    public final int size(){
+        return this.children.length;
+    }
+    /**
+     * @return Number of cells in the space time index
+     */
+    public final int cells(){
+        return this.cellx.length;
+    }
+    /**
+     * @return Cells of the space time index in the order of the key
+     * scheme
+     */
+    public Key[] keys(){
+        final int count = this.cellx.length;
+        final Key[] keys = new Key[count];
+        for (int cc = 0; cc < count; cc++){
+            final int k = (cc<<2);
+            keys[cc] = new Key(this.cells[k],this.cells[k+1],this.cells[k+2],this.cells[k+3]);
+        }
+        return keys;
+    }
+    /**
+     * @return Child, or null
+     */
+    public <R extends Spacetime<E>> R get(int idx){
+        if (-1 < idx && idx < this.children.length)
+            return (R)this.children[idx];
+        else
+            return null;
+    }
+    /**
+     * Enumerated list
+     */
+    public <R extends Spacetime<E>> R get(E en){
+
+        return this.get(en.ordinal());
+    }
+    /**
+     * Indexed space time list
+     */
+    public <R extends Spacetime<E>> R get(Float x, Float y, Float z, Float t){
+        if (null == x || null == y)
+            return this.lookup(0,0,0,0);
+        else {
+            final float r = this.resolution;
+
+            return this.lookup(Key.IndexRep(x.floatValue(),r),Key.IndexRep(y.floatValue(),r),
+                               Key.IndexRep(SpatialHash.Value(z),r),Key.IndexRep(SpatialHash.Value(t),r));
+        }
+    }
+    /**
+     * Indexed space time list, without allocation.
+     */
+    public <R extends Spacetime<E>> R lookup(float x, float y, float z, float t){
+        final float r = this.resolution;
+
+        return this.lookup(Key.IndexRep(x,r),Key.IndexRep(y,r),Key.IndexRep(z,r),Key.IndexRep(t,r));
+    }
+    /**
+     * @return Child in the index cell, or null
+     */
+    public <R extends Spacetime<E>> R lookup(Key key){
+
+        return this.lookup(key.x,key.y,key.z,key.t);
+    }
+    /**
+     * Runtime key list
+     */
+    public <K extends Comparable<K>, R extends Spacetime<E>> R get(K k){
+
+        final int kc = java.util.Arrays.binarySearch(this.keys,k,Spacetime.KeyOrder);
+        if (-1 < kc)
+            return this.get(this.keyx[kc]);
+        else
+            return null;
+    }
+    /**
+     * @exception java.lang.UnsupportedOperationException Immutable
+     */
+    public <R extends Spacetime<E>> R put(R p){
+        throw new UnsupportedOperationException("Frozen");
+    }
+    /**
+     * @return List for iteration
+     */
+    public <R extends Spacetime<E>> java.lang.Iterable<R> iterable(){
+        return (Iterable<R>)this;
+    }
+    public java.util.Iterator<Spacetime<E>> iterator(){
+
+        return java.util.Collections.unmodifiableList(java.util.Arrays.asList(this.children)).iterator();
+    }
+    /**
+     * @return Child in the index cell, or null
+     */
+    protected <R extends Spacetime<E>> R lookup(int x, int y, int z, int t){
+        final int[] cells = this.cells;
+        final int[] table = this.table;
+        final int mask = (table.length-1);
+
+        int slot = (this.scheme.hash(x,y,z,t) & mask);
+        while (true){
+            final int cc = table[slot];
+            if (SpatialHash.Empty == cc)
+                return null;
+            else {
+                final int k = (cc<<2);
+                if (x == cells[k] && y == cells[k+1] && z == cells[k+2] && t == cells[k+3])
+                    return this.get(this.cellx[cc]);
+                else
+                    slot = ((slot+1) & mask);
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Spacetime Standalone
+ * Copyright (C) 2013, John Pritchard.
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package spacetime.standalone;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Inflate a GZIP stream on a producer thread into a bounded queue of
+ * byte blocks, which are consumed by the reader of this stream.
+ * Decompression and parsing proceed concurrently, and the queue
+ * bounds memory use.  Consumed blocks are returned to the producer
+ * for reuse.
+ *
+ * <p> An exception of the producer is thrown by the consumer
+ * following the last block inflated.  Closing the stream stops the
+ * producer and closes the compressed input. </p>
+ *
+ * @see STL#readGZIP(java.io.InputStream)
+ */
+public class GZIPPipe
+    extends InputStream
+    implements Runnable
+{
+    /**
+     * Block length
+     */
+    protected final static int Block = (1<<16);
+    /**
+     * Number of inflated blocks waiting for the consumer
+     */
+    protected final static int Depth = 8;
+    /**
+     * End of stream block
+     */
+    protected final static ByteBuffer End = ByteBuffer.allocate(0);
+
+
+    protected final InputStream in;
+
+    protected final ArrayBlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(Depth+1);
+
+    protected final ArrayBlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(Depth+1);
+
+    protected final Thread producer;
+
+    protected volatile IOException error;
+
+    protected ByteBuffer current;
+
+
+    /**
+     * @param in GZIP compressed input
+     */
+    public GZIPPipe(InputStream in){
+        super();
+        if (null != in){
+            this.in = in;
+            for (int cc = 0; cc < Depth; cc++){
+                this.free.add(ByteBuffer.allocate(Block));
+            }
+            this.producer = new Thread(this,"GZIPPipe");
+            this.producer.setDaemon(true);
+            this.producer.start();
+        }
+        else
+            throw new IllegalArgumentException();
+    }
+
+
+    /**
+     * Producer
+     */
+    public void run(){
+        try {
+            final GZIPInputStream gz = new GZIPInputStream(this.in,Block);
+            try {
+                while (true){
+                    final ByteBuffer block = this.free.take();
+
+                    final int len = STL.Fill(gz,block.array(),0,Block);
+                    if (0 < len){
+                        block.clear();
+                        block.limit(len);
+
+                        this.full.put(block);
+                    }
+                    if (Block > len){
+                        break;
+                    }
+                }
+            }
+            catch (IOException exc){
+
+                this.error = exc;
+            }
+            finally {
+                try {
+                    gz.close();
+                }
+                catch (IOException ignore){
+                }
+            }
+            this.full.put(End);
+        }
+        catch (IOException exc){
+
+            this.error = exc;
+            try {
+                this.full.put(End);
+            }
+            catch (InterruptedException closed){
+            }
+        }
+        catch (InterruptedException closed){
+        }
+    }
+    public int read()
+        throws IOException
+    {
+        final ByteBuffer current = this.current();
+        if (End == current)
+            return -1;
+        else
+            return (current.get() & 0xFF);
+    }
+    public int read(byte[] buf, int ofs, int len)
+        throws IOException
+    {
+        if (0 == len)
+            return 0;
+        else {
+            final ByteBuffer current = this.current();
+            if (End == current)
+                return -1;
+            else {
+                len = Math.min(len,current.remaining());
+                current.get(buf,ofs,len);
+                return len;
+            }
+        }
+    }
+    public int available(){
+        final ByteBuffer current = this.current;
+        if (null == current)
+            return 0;
+        else
+            return current.remaining();
+    }
+    public void close()
+        throws IOException
+    {
+        this.producer.interrupt();
+        this.current = End;
+        this.in.close();
+    }
+    /**
+     * @return Block having remaining content, or end of stream
+     */
+    protected ByteBuffer current()
+        throws IOException
+    {
+        ByteBuffer current = this.current;
+        if (null != current && current.hasRemaining())
+            return current;
+        else if (End == current)
+            return End;
+        else {
+            if (null != current)
+                this.free.offer(current);
+            try {
+                current = this.full.take();
+            }
+            catch (InterruptedException exc){
+                throw new InterruptedIOException();
+            }
+            this.current = current;
+
+            if (End == current && null != this.error)
+                throw new IOException(this.error);
+            else
+                return current;
+        }
+    }
+}
@@ -0,0 +1,675 @@
+/*
+ * Spacetime Standalone
+ * Copyright (C) 2013, John Pritchard.
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package spacetime.standalone;
+
+/**
+ * Uniform grid over the index cells of the children of a container,
+ * listing every child in each occupied cell.  The space time index
+ * holds one child per cell, while the grid holds all of them for
+ * range queries.
+ *
+ * <pre>
+ * cells    cell { x, y, z, t } to bucket
+ * keys     { x, y, z, t }                 per bucket
+ * start    { offset }                     per bucket, and end
+ * members  { child index }                by bucket, in list order
+ * coords   { x, y, z }                    per member
+ * </pre>
+ *
+ * <p> A box query enumerates the cells of the box when there are
+ * fewer of them than occupied cells, and otherwise scans the
+ * occupied cells.  Children in candidate cells are tested against
+ * the box. </p>
+ *
+ * <p> Nearest neighbour and radius queries measure distance in X, Y
+ * and Z over children at any T, where null ordinates map as for the
+ * index.  A nearest neighbour query expands rings of cells about the
+ * query point until the nearest distance of the next ring exceeds
+ * the farthest of the neighbours found. </p>
+ *
+ * @see Spacetime#query(SpacetimeBounds)
+ */
+public class Grid
+    extends Object
+{
+
+    protected final float resolution;
+
+    protected final SpatialHash cells;
+
+    protected final int[] keys;
+
+    protected final int[] start;
+
+    protected final int[] members;
+
+    protected final float[] coords;
+    /**
+     * Extent of occupied cells as { x0, y0, z0, t0, x1, y1, z1, t1 }
+     */
+    protected final int[] extent = {
+        Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 
+        Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE
+    };
+    /**
+     * Container list length when built
+     */
+    public final int size;
+    /**
+     * Container modification count when built
+     */
+    public final int modified;
+
+
+    /**
+     * Build over the children of the container.
+     */
+    public Grid(Spacetime container){
+        super();
+        final float r = container.resolution;
+        final int size = container.size();
+
+        this.resolution = r;
+        this.size = size;
+        this.modified = container.modified;
+
+        final SpatialHash cells = new SpatialHash(r,Math.min(size,(1<<16)),container.scheme);
+        final int[] bucket = new int[size];
+        int[] count = new int[16];
+        int buckets = 0;
+        /*
+         * Assign buckets and count members
+         */
+        for (int cc = 0; cc < size; cc++){
+            final Spacetime child = (Spacetime)container.get(cc);
+            if (null == child)
+                bucket[cc] = -1;
+            else {
+                int b = cells.add(child.x,child.y,child.z,child.t,buckets);
+                if (-1 == b){
+                    b = buckets++;
+                    if (b == count.length){
+                        final int[] copier = new int[count.length<<1];
+                        System.arraycopy(count,0,copier,0,count.length);
+                        count = copier;
+                    }
+                }
+                bucket[cc] = b;
+                count[b] += 1;
+            }
+        }
+        /*
+         * Offsets
+         */
+        final int[] start = new int[buckets+1];
+        for (int b = 0; b < buckets; b++){
+            start[b+1] = (start[b]+count[b]);
+        }
+        /*
+         * Members in list order
+         */
+        final int[] members = new int[start[buckets]];
+        final float[] coords = new float[3*members.length];
+        final int[] fill = new int[buckets];
+        System.arraycopy(start,0,fill,0,buckets);
+        for (int cc = 0; cc < size; cc++){
+            final int b = bucket[cc];
+            if (-1 < b){
+                final int m = fill[b]++;
+                members[m] = cc;
+
+                final Spacetime child = (Spacetime)container.get(cc);
+                if (null != child.x && null != child.y){
+                    final int c = (3*m);
+                    coords[c] = child.x.floatValue();
+                    coords[c+1] = child.y.floatValue();
+                    coords[c+2] = STL.Value(child.z);
+                }
+            }
+        }
+        /*
+         * Cells by bucket
+         */
+        final int[] keys = new int[buckets<<2];
+        final int[] extent = this.extent;
+        for (int slot = 0, capacity = cells.capacity(); slot < capacity; slot++){
+            final int b = cells.value(slot);
+            if (SpatialHash.Empty != b){
+                final int k = (b<<2);
+                for (int dim = 0; dim < 4; dim++){
+                    final int key = cells.key(slot,dim);
+                    keys[k+dim] = key;
+                    extent[dim] = Math.min(extent[dim],key);
+                    extent[dim+4] = Math.max(extent[dim+4],key);
+                }
+            }
+        }
+        this.cells = cells;
+        this.keys = keys;
+        this.start = start;
+        this.members = members;
+        this.coords = coords;
+    }
+
+
+    /**
+     * @return Number of occupied cells
+     */
+    public final int buckets(){
+        return (this.start.length-1);
+    }
+    /**
+     * @param container Container of this grid
+     * @param box Query bounds
+     * @param v Visitor, receiving children in the box
+     * @return Number of children in the box
+     */
+    public int query(Spacetime container, SpacetimeBounds box, Spacetime.Visitor v){
+        final float r = this.resolution;
+        final int[] extent = this.extent;
+        /*
+         * Cells of the box within the occupied cells
+         */
+        final int x0 = Math.max(extent[0],Lo(box.x0,r)), x1 = Math.min(extent[4],Hi(box.x1,r));
+        final int y0 = Math.max(extent[1],Lo(box.y0,r)), y1 = Math.min(extent[5],Hi(box.y1,r));
+        final int z0 = Math.max(extent[2],Lo(box.z0,r)), z1 = Math.min(extent[6],Hi(box.z1,r));
+        final int t0 = Math.max(extent[3],Lo(box.t0,r)), t1 = Math.min(extent[7],Hi(box.t1,r));
+
+        if (x0 > x1 || y0 > y1 || z0 > z1 || t0 > t1)
+            return 0;
+        else {
+            final double cells = (((double)x1-x0+1)*((double)y1-y0+1)*
+                                  ((double)z1-z0+1)*((double)t1-t0+1));
+            int found = 0;
+
+            if (cells <= this.buckets()){
+
+                for (int t = t0; ; t++){
+                    for (int z = z0; ; z++){
+                        for (int y = y0; ; y++){
+                            for (int x = x0; ; x++){
+
+                                final int b = this.cells.get(x,y,z,t);
+                                if (-1 < b)
+                                    found += this.visit(container,b,box,v);
+
+                                if (x == x1) break;
+                            }
+                            if (y == y1) break;
+                        }
+                        if (z == z1) break;
+                    }
+                    if (t == t1) break;
+                }
+            }
+            else {
+                final int[] keys = this.keys;
+
+                for (int b = 0, buckets = this.buckets(); b < buckets; b++){
+                    final int k = (b<<2);
+                    final int x = keys[k], y = keys[k+1], z = keys[k+2], t = keys[k+3];
+
+                    if (x0 <= x && x <= x1 && y0 <= y && y <= y1 &&
+                        z0 <= z && z <= z1 && t0 <= t && t <= t1)
+                    {
+                        found += this.visit(container,b,box,v);
+                    }
+                }
+            }
+            return found;
+        }
+    }
+    /**
+     * @param x Query point
+     * @param y Query point
+     * @param z Query point
+     * @param r Radius, inclusive
+     * @return List indeces of children within the radius, in list
+     * order
+     */
+    public int[] radius(float x, float y, float z, float r){
+        final int[] extent = this.extent;
+        if (!(0f <= r) || extent[0] > extent[4])
+            return new int[0];
+        else {
+            final float res = this.resolution;
+
+            final int x0 = Math.max(extent[0],Key.IndexRep(x-r,res)), x1 = Math.min(extent[4],Key.IndexRep(x+r,res));
+            final int y0 = Math.max(extent[1],Key.IndexRep(y-r,res)), y1 = Math.min(extent[5],Key.IndexRep(y+r,res));
+            final int z0 = Math.max(extent[2],Key.IndexRep(z-r,res)), z1 = Math.min(extent[6],Key.IndexRep(z+r,res));
+            final int t0 = extent[3], t1 = extent[7];
+
+            final Nearest found = new Nearest(x,y,z,0);
+            final double r2 = ((double)r*r);
+
+            if (x0 <= x1 && y0 <= y1 && z0 <= z1){
+
+                final double cells = (((double)x1-x0+1)*((double)y1-y0+1)*
+                                      ((double)z1-z0+1)*((double)t1-t0+1));
+
+                if (cells <= this.buckets()){
+
+                    for (int t = t0; ; t++){
+                        for (int cz = z0; ; cz++){
+                            for (int cy = y0; ; cy++){
+                                for (int cx = x0; ; cx++){
+
+                                    final int b = this.cells.get(cx,cy,cz,t);
+                                    if (-1 < b)
+                                        found.within(this,b,r2);
+
+                                    if (cx == x1) break;
+                                }
+                                if (cy == y1) break;
+                            }
+                            if (cz == z1) break;
+                        }
+                        if (t == t1) break;
+                    }
+                }
+                else {
+                    final int[] keys = this.keys;
+
+                    for (int b = 0, buckets = this.buckets(); b < buckets; b++){
+                        final int k = (b<<2);
+                        final int cx = keys[k], cy = keys[k+1], cz = keys[k+2];
+
+                        if (x0 <= cx && cx <= x1 && y0 <= cy && cy <= y1 && z0 <= cz && cz <= z1)
+
+                            found.within(this,b,r2);
+                    }
+                }
+            }
+            return found.list();
+        }
+    }
+    /**
+     * @param x Query point
+     * @param y Query point
+     * @param z Query point
+     * @param k Number of neighbours
+     * @return List indeces of the nearest children, nearest first,
+     * and in list order for equal distances
+     */
+    public int[] nearest(float x, float y, float z, int k){
+        final int[] extent = this.extent;
+        if (1 > k || extent[0] > extent[4])
+            return new int[0];
+        else {
+            final float res = this.resolution;
+            final int cx = Key.IndexRep(x,res), cy = Key.IndexRep(y,res), cz = Key.IndexRep(z,res);
+            final int t0 = extent[3], t1 = extent[7];
+            final int buckets = this.buckets();
+            /*
+             * Farthest ring intersecting the occupied cells
+             */
+            final long far = Math.max(Math.max(Math.max((long)cx-extent[0],(long)extent[4]-cx),
+                                               Math.max((long)cy-extent[1],(long)extent[5]-cy)),
+                                      Math.max((long)cz-extent[2],(long)extent[6]-cz));
+
+            final Nearest found = new Nearest(x,y,z,k);
+
+            long probes = 0L;
+
+            for (int d = 0; ; d++){
+
+                if (found.full()){
+                    final double bound = ((d-1)/(double)res);
+                    if (0 < d && (bound*bound) > found.farthest())
+                        break;
+                }
+                /*
+                 * Rings beyond the number of occupied cells are
+                 * scanned as a list of cells
+                 */
+                final long ring = (0 == d)?(1L):(24L*d*d+2L);
+                if ((probes += ring*((long)t1-t0+1L)) > buckets){
+
+                    final int[] keys = this.keys;
+
+                    for (int b = 0; b < buckets; b++){
+                        final int kb = (b<<2);
+                        final long ring_b = Math.max(Math.max(Math.abs((long)keys[kb]-cx),Math.abs((long)keys[kb+1]-cy)),
+                                                     Math.abs((long)keys[kb+2]-cz));
+                        if (ring_b >= d)
+                            found.nearest(this,b);
+                    }
+                    break;
+                }
+                else {
+                    for (int t = t0; ; t++){
+                        for (int dx = -d; ; dx++){
+                            final int x_c = (cx+dx);
+                            if (extent[0] <= x_c && x_c <= extent[4]){
+
+                                for (int dy = -d; ; dy++){
+                                    final int y_c = (cy+dy);
+                                    if (extent[1] <= y_c && y_c <= extent[5]){
+                                        /*
+                                         * Interior columns of the ring
+                                         * have their ends only
+                                         */
+                                        final int step = (d == Math.abs(dx) || d == Math.abs(dy))?(1):(Math.max(1,(2*d)));
+
+                                        for (int dz = -d; ; dz += step){
+                                            final int z_c = (cz+dz);
+                                            if (extent[2] <= z_c && z_c <= extent[6]){
+
+                                                final int b = this.cells.get(x_c,y_c,z_c,t);
+                                                if (-1 < b)
+                                                    found.nearest(this,b);
+                                            }
+                                            if (dz > (d-step)) break;
+                                        }
+                                    }
+                                    if (dy == d) break;
+                                }
+                            }
+                            if (dx == d) break;
+                        }
+                        if (t == t1) break;
+                    }
+                }
+                if (d >= far || Integer.MAX_VALUE == d) break;
+            }
+            return found.list();
+        }
+    }
+    protected int visit(Spacetime container, int b, SpacetimeBounds box, Spacetime.Visitor v){
+        final int[] members = this.members;
+        int found = 0;
+
+        for (int m = this.start[b], end = this.start[b+1]; m < end; m++){
+            final int index = members[m];
+            final Spacetime child = (Spacetime)container.get(index);
+
+            if (Contains(box,child)){
+                found += 1;
+
+                v.visit(index,child);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Nearest neighbour or radius queries over a range of query
+     * points, split in halves to a fork join pool.  The grid is not
+     * modified by queries.
+     */
+    protected final static class Batch
+        extends java.util.concurrent.RecursiveAction
+    {
+        /**
+         * Number of query points answered without splitting
+         */
+        protected final static int Threshold = 64;
+
+
+        protected final Grid grid;
+
+        protected final float[] points;
+
+        protected final int k;
+
+        protected final float r;
+
+        protected final int[][] results;
+
+        protected final int start, end;
+
+
+        /**
+         * @param k Number of neighbours, or zero for the radius query
+         * @param r Radius
+         */
+        protected Batch(Grid grid, float[] points, int k, float r, int[][] results, int start, int end){
+            super();
+            this.grid = grid;
+            this.points = points;
+            this.k = k;
+            this.r = r;
+            this.results = results;
+            this.start = start;
+            this.end = end;
+        }
+
+
+        protected void compute(){
+            final int start = this.start, end = this.end;
+            if (Threshold >= (end-start)){
+                final Grid grid = this.grid;
+                final float[] points = this.points;
+
+                for (int cc = start; cc < end; cc++){
+                    final int p = (3*cc);
+                    if (0 < this.k)
+                        this.results[cc] = grid.nearest(points[p],points[p+1],points[p+2],this.k);
+                    else
+                        this.results[cc] = grid.radius(points[p],points[p+1],points[p+2],this.r);
+                }
+            }
+            else {
+                final int middle = ((start+end)>>>1);
+
+                invokeAll(new Batch(this.grid,this.points,this.k,this.r,this.results,start,middle),
+                          new Batch(this.grid,this.points,this.k,this.r,this.results,middle,end));
+            }
+        }
+    }
+    /**
+     * Neighbours of a query point, as a bounded max heap of the
+     * nearest or a list of those within a radius
+     */
+    protected final static class Nearest
+        extends Object
+    {
+        protected final float x, y, z;
+
+        protected final int k;
+
+        protected int[] index;
+
+        protected double[] distance;
+
+        protected int count;
+
+
+        protected Nearest(float x, float y, float z, int k){
+            super();
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.k = k;
+            this.index = new int[Math.max(8,k)];
+            this.distance = new double[Math.max(8,k)];
+        }
+
+
+        protected boolean full(){
+            return (this.count == this.k);
+        }
+        /**
+         * @return Square distance of the farthest neighbour in the
+         * heap
+         */
+        protected double farthest(){
+            return this.distance[0];
+        }
+        protected double distance(float[] coords, int m){
+            final int c = (3*m);
+            final double dx = (coords[c]-this.x);
+            final double dy = (coords[c+1]-this.y);
+            final double dz = (coords[c+2]-this.z);
+            return (dx*dx + dy*dy + dz*dz);
+        }
+        /**
+         * Add the members of the bucket within the radius
+         */
+        protected void within(Grid grid, int b, double r2){
+            final float[] coords = grid.coords;
+            final int[] members = grid.members;
+
+            for (int m = grid.start[b], end = grid.start[b+1]; m < end; m++){
+
+                if (this.distance(coords,m) <= r2){
+                    if (this.count == this.index.length){
+                        final int[] copier = new int[this.count<<1];
+                        System.arraycopy(this.index,0,copier,0,this.count);
+                        this.index = copier;
+                    }
+                    this.index[this.count++] = members[m];
+                }
+            }
+        }
+        /**
+         * Heap the members of the bucket nearer than the farthest
+         */
+        protected void nearest(Grid grid, int b){
+            final float[] coords = grid.coords;
+            final int[] members = grid.members;
+            final int[] index = this.index;
+            final double[] distance = this.distance;
+
+            for (int m = grid.start[b], end = grid.start[b+1]; m < end; m++){
+
+                final double d2 = this.distance(coords,m);
+                final int i = members[m];
+
+                if (this.count < this.k){
+                    /*
+                     * Sift up
+                     */
+                    int c = this.count++;
+                    while (0 < c){
+                        final int p = ((c-1)>>1);
+                        if (Before(distance[p],index[p],d2,i)){
+                            distance[c] = distance[p];
+                            index[c] = index[p];
+                            c = p;
+                        }
+                        else
+                            break;
+                    }
+                    distance[c] = d2;
+                    index[c] = i;
+                }
+                else if (Before(d2,i,distance[0],index[0])){
+                    /*
+                     * Replace the farthest, and sift down
+                     */
+                    final int n = this.count;
+                    int c = 0;
+                    while (true){
+                        int l = (2*c)+1;
+                        if (l >= n)
+                            break;
+                        else {
+                            final int r = (l+1);
+                            if (r < n && Before(distance[l],index[l],distance[r],index[r]))
+                                l = r;
+
+                            if (Before(d2,i,distance[l],index[l])){
+                                distance[c] = distance[l];
+                                index[c] = index[l];
+                                c = l;
+                            }
+                            else
+                                break;
+                        }
+                    }
+                    distance[c] = d2;
+                    index[c] = i;
+                }
+            }
+        }
+        /**
+         * @return List indeces, nearest first for a heap, or in list
+         * order for a radius
+         */
+        protected int[] list(){
+            final int count = this.count;
+            final int[] list = new int[count];
+            if (0 == this.k){
+                System.arraycopy(this.index,0,list,0,count);
+                java.util.Arrays.sort(list);
+            }
+            else {
+                /*
+                 * Order by distance and index
+                 */
+                final Integer[] order = new Integer[count];
+                for (int cc = 0; cc < count; cc++)
+                    order[cc] = cc;
+
+                final int[] index = this.index;
+                final double[] distance = this.distance;
+                java.util.Arrays.sort(order,new java.util.Comparator<Integer>(){
+                        public int compare(Integer a, Integer b){
+                            final int ia = a.intValue(), ib = b.intValue();
+                            if (Before(distance[ia],index[ia],distance[ib],index[ib]))
+                                return -1;
+                            else if (ia == ib)
+                                return 0;
+                            else
+                                return +1;
+                        }
+                    });
+                for (int cc = 0; cc < count; cc++)
+                    list[cc] = index[order[cc]];
+            }
+            return list;
+        }
+        /**
+         * @return Neighbour A is nearer than neighbour B
+         */
+        protected final static boolean Before(double da, int ia, double db, int ib){
+            return (da < db || (da == db && ia < ib));
+        }
+    }
+    /**
+     * @return The child is within the box, where null ordinates map
+     * as for the index
+     */
+    protected final static boolean Contains(SpacetimeBounds box, Spacetime child){
+        if (null == child.x || null == child.y)
+            return box.contains(0f,0f,0f,0f);
+        else
+            return box.contains(child.x.floatValue(),child.y.floatValue(),
+                                STL.Value(child.z),STL.Value(child.t));
+    }
+    /**
+     * @return Lowest cell of an inclusive minimum
+     */
+    protected final static int Lo(Float min, float r){
+        if (null == min)
+            return Integer.MIN_VALUE;
+        else
+            return Key.IndexRep(min.floatValue(),r);
+    }
+    /**
+     * @return Highest cell of an inclusive maximum
+     */
+    protected final static int Hi(Float max, float r){
+        if (null == max)
+            return Integer.MAX_VALUE;
+        else
+            return Key.IndexRep(max.floatValue(),r);
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Spacetime Standalone
+ * Copyright (C) 2013, John Pritchard.
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package spacetime.standalone;
+
+/**
+ * Multiple resolution index over the children of a container.  The
+ * children are sorted in the Z-order of their index cells, so that
+ * every cell of a coarser resolution holds a contiguous run of them.
+ * Each level halves the resolution of the next finer level one or
+ * more times, and holds the runs of its occupied cells.
+ *
+ * <pre>
+ * members  { child index }                in Z-order
+ * cells    { x, y, z, t }                 per member, at the container resolution
+ * shift    { bits }                       per level, coarse to fine
+ * start    { offset }                     per level, per run and end
+ * down     { run }                        per level, per run and end, into the next level
+ * </pre>
+ *
+ * <p> A level is kept where it holds no more than half of the
+ * occupied cells of the finer level kept before it, so that sparse
+ * regions are not repeated at every resolution.  The coarsest level
+ * holds no more than {@link #Top} cells. </p>
+ *
+ * <p> A box query starts at the coarsest level.  A cell outside the
+ * box is skipped, a cell within the box is reported whole, and any
+ * other cell is refined into its occupied cells at the next level.
+ * At the container resolution the children of cells on the boundary
+ * of the box are tested against it. </p>
+ *
+ * @see Spacetime#refine(SpacetimeBounds)
+ */
+public class Hierarchy
+    extends Object
+{
+    /**
+     * Maximum number of cells in the coarsest level
+     */
+    public final static int Top = 8;
+
+
+    protected final float resolution;
+
+    protected final int[] members;
+    /**
+     * Cells of members with the sign bit flipped, for unsigned order
+     */
+    protected final int[] cells;
+
+    protected final int[] shift;
+
+    protected final int[][] start;
+
+    protected final int[][] down;
+    /**
+     * Container list length when built
+     */
+    public final int size;
+    /**
+     * Container modification count when built
+     */
+    public final int modified;
+
+
+    /**
+     * Build over the children of the container.
+     */
+    public Hierarchy(Spacetime container){
+        super();
+        final float r = container.resolution;
+        final int size = container.size();
+
+        this.resolution = r;
+        this.size = size;
+        this.modified = container.modified;
+        /*
+         * Cells and Z-order keys of the children present
+         */
+        int count = 0;
+        for (int cc = 0; cc < size; cc++){
+            if (null != container.get(cc))
+                count += 1;
+        }
+        final int[] index = new int[count];
+        final int[] cells = new int[count<<2];
+        final long[] hi = new long[count], lo = new long[count];
+        for (int cc = 0, m = 0; cc < size; cc++){
+            final Spacetime child = (Spacetime)container.get(cc);
+            if (null != child){
+                final int k = (m<<2);
+                if (null != child.x && null != child.y){
+                    cells[k] = (Key.IndexRep(child.x.floatValue(),r) ^ Integer.MIN_VALUE);
+                    cells[k+1] = (Key.IndexRep(child.y.floatValue(),r) ^ Integer.MIN_VALUE);
+                    cells[k+2] = (Key.IndexRep(STL.Value(child.z),r) ^ Integer.MIN_VALUE);
+                    cells[k+3] = (Key.IndexRep(STL.Value(child.t),r) ^ Integer.MIN_VALUE);
+                }
+                else {
+                    cells[k] = Integer.MIN_VALUE;
+                    cells[k+1] = Integer.MIN_VALUE;
+                    cells[k+2] = Integer.MIN_VALUE;
+                    cells[k+3] = Integer.MIN_VALUE;
+                }
+                hi[m] = (Interleave(cells,k,16) ^ Long.MIN_VALUE);
+                lo[m] = (Interleave(cells,k,0) ^ Long.MIN_VALUE);
+                index[m++] = cc;
+            }
+        }
+        /*
+         * Members in Z-order, and in list order within a cell
+         */
+        final Integer[] order = new Integer[count];
+        for (int m = 0; m < count; m++){
+            order[m] = m;
+        }
+        java.util.Arrays.sort(order,new java.util.Comparator<Integer>(){
+                public int compare(Integer a, Integer b){
+                    final int ia = a.intValue(), ib = b.intValue();
+                    if (hi[ia] != hi[ib])
+                        return (hi[ia] < hi[ib])?(-1):(1);
+                    else if (lo[ia] != lo[ib])
+                        return (lo[ia] < lo[ib])?(-1):(1);
+                    else
+                        return (ia - ib);
+                }
+            });
+        this.members = new int[count];
+        this.cells = new int[count<<2];
+        for (int m = 0; m < count; m++){
+            final int o = order[m].intValue();
+            this.members[m] = index[o];
+            System.arraycopy(cells,(o<<2),this.cells,(m<<2),4);
+        }
+        /*
+         * Each member after the first starts a run at the shifts
+         * below the highest bit in which its cell differs from the
+         * cell of the member before it
+         */
+        final int[] split = new int[count];
+        final int[] runs = new int[34];
+        for (int m = 1; m < count; m++){
+            final int k = (m<<2), p = (k-4);
+            final int diff = ((this.cells[k]^this.cells[p])|(this.cells[k+1]^this.cells[p+1])|
+                              (this.cells[k+2]^this.cells[p+2])|(this.cells[k+3]^this.cells[p+3]));
+
+            final int s = (32-Integer.numberOfLeadingZeros(diff));
+            split[m] = s;
+            runs[s] += 1;
+        }
+        /*
+         * Number of splits above each shift
+         */
+        for (int s = 32; 0 < s; s--){
+            runs[s-1] += runs[s];
+        }
+        final int[] kept = new int[33];
+        int levels = 0, last = 0;
+        for (int s = 0; s <= 32; s++){
+            final int n = Runs(runs,s,count);
+            if (0 == s || (n <= (last>>1))){
+                kept[levels++] = s;
+                last = n;
+                if (n <= Top)
+                    break;
+            }
+        }
+        /*
+         * Levels, coarse to fine
+         */
+        this.shift = new int[levels];
+        this.start = new int[levels][];
+        this.down = new int[levels][];
+        for (int level = 0; level < levels; level++){
+            final int s = kept[levels-1-level];
+            this.shift[level] = s;
+
+            final int[] start = new int[Runs(runs,s,count)+1];
+            int rc = 0;
+            for (int m = 0; m < count; m++){
+                if (0 == m || split[m] > s)
+                    start[rc++] = m;
+            }
+            start[rc] = count;
+            this.start[level] = start;
+        }
+        for (int level = 0; level < levels; level++){
+            final int[] start = this.start[level];
+            final int[] down = new int[start.length];
+            if (level+1 < levels){
+                final int[] finer = this.start[level+1];
+                for (int rc = 0, fc = 0; rc < start.length; rc++){
+                    while (finer[fc] < start[rc])
+                        fc += 1;
+                    down[rc] = fc;
+                }
+            }
+            this.down[level] = down;
+        }
+    }
+
+
+    /**
+     * @return Number of levels
+     */
+    public final int levels(){
+        return this.shift.length;
+    }
+    /**
+     * @param level Zero for the coarsest
+     * @return Index resolution of the level
+     */
+    public final float resolution(int level){
+        return (float)(this.resolution / Math.pow(2.0,this.shift[level]));
+    }
+    /**
+     * @param level Zero for the coarsest
+     * @return Number of occupied cells in the level
+     */
+    public final int cells(int level){
+        return (this.start[level].length-1);
+    }
+    /**
+     * @param container Container of this hierarchy
+     * @param box Query bounds
+     * @param v Visitor, receiving children in the box in Z-order
+     * @return Number of children in the box
+     */
+    public int query(Spacetime container, SpacetimeBounds box, Spacetime.Visitor v){
+        final float r = this.resolution;
+        /*
+         * Unsigned cells of the box, open bounds beyond any cell
+         */
+        final long[] range = {
+            Lo(box.x0,r), Lo(box.y0,r), Lo(box.z0,r), Lo(box.t0,r),
+            Hi(box.x1,r), Hi(box.y1,r), Hi(box.z1,r), Hi(box.t1,r)
+        };
+        int found = 0;
+
+        if (0 < this.shift.length){
+            for (int rc = 0, runs = this.cells(0); rc < runs; rc++){
+
+                found += this.refine(container,0,rc,box,range,v);
+            }
+        }
+        return found;
+    }
+    protected int refine(Spacetime container, int level, int rc, SpacetimeBounds box, long[] range, Spacetime.Visitor v){
+        final int s = this.shift[level];
+        final int[] start = this.start[level];
+        final int first = start[rc], end = start[rc+1];
+        final int k = (first<<2);
+        boolean interior = true;
+
+        for (int dim = 0; dim < 4; dim++){
+            final long c0 = (((this.cells[k+dim] & 0xFFFFFFFFL)>>>s)<<s);
+            final long c1 = (c0 + (1L<<s) - 1L);
+            final long b0 = range[dim], b1 = range[dim+4];
+
+            if (c1 < b0 || c0 > b1)
+                return 0;
+            else if (c0 <= b0 || c1 >= b1)
+                interior = false;
+        }
+
+        int found = 0;
+        if (interior){
+            for (int m = first; m < end; m++){
+                final int index = this.members[m];
+
+                v.visit(index,(Spacetime)container.get(index));
+            }
+            found = (end-first);
+        }
+        else if (level+1 < this.shift.length){
+            final int[] down = this.down[level];
+            for (int fc = down[rc], fe = down[rc+1]; fc < fe; fc++){
+
+                found += this.refine(container,(level+1),fc,box,range,v);
+            }
+        }
+        else {
+            for (int m = first; m < end; m++){
+                final int index = this.members[m];
+                final Spacetime child = (Spacetime)container.get(index);
+
+                if (Grid.Contains(box,child)){
+                    found += 1;
+
+                    v.visit(index,child);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return Number of runs at the shift
+     */
+    protected final static int Runs(int[] runs, int s, int count){
+        if (0 == count)
+            return 0;
+        else
+            return (1+runs[s+1]);
+    }
+    /**
+     * @return Sixteen bits of each of four cells from the offset
+     * bit, interleaved from X in the lowest bit
+     */
+    protected final static long Interleave(int[] cells, int k, int offset){
+        long bits = 0L;
+        for (int dim = 0; dim < 4; dim++){
+            long b = ((cells[k+dim]>>>offset) & 0xFFFFL);
+            b = (b | (b << 24)) & 0x000000FF000000FFL;
+            b = (b | (b << 12)) & 0x000F000F000F000FL;
+            b = (b | (b << 6)) & 0x0303030303030303L;
+            b = (b | (b << 3)) & 0x1111111111111111L;
+            bits |= (b << dim);
+        }
+        return bits;
+    }
+    /**
+     * @return Unsigned lowest cell of an inclusive minimum, below
+     * every cell when open
+     */
+    protected final static long Lo(Float min, float r){
+        if (null == min)
+            return -1L;
+        else
+            return (Key.IndexRep(min.floatValue(),r) & 0xFFFFFFFFL) ^ 0x80000000L;
+    }
+    /**
+     * @return Unsigned highest cell of an inclusive maximum, above
+     * every cell when open
+     */
+    protected final static long Hi(Float max, float r){
+        if (null == max)
+            return (1L<<32);
+        else
+            return (Key.IndexRep(max.floatValue(),r) & 0xFFFFFFFFL) ^ 0x80000000L;
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Spacetime Standalone
+ * Copyright (C) 2013, John Pritchard.
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package spacetime.standalone;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Batch motion of the children of a container having X, Y and a
+ * {@link SpacetimeMotion}.  Positions and derivatives are packed into
+ * primitive arrays per ordinate, and a step advances them in ranges
+ * on a fork join pool.
+ *
+ * <pre>
+ * members  { child index }                per moving child
+ * x, y, z  { ordinate }                   per member, NaN for null Z
+ * dx1..dz3 { derivative }                 per member, zero for null
+ * clock    { t }                          per member, NaN for null
+ * cells    { x, y, z, t }                 per member, index cell
+ * </pre>
+ *
+ * <p> A step adds the Taylor series of each ordinate over the
+ * interval, and advances the first and second derivatives by the
+ * higher ones.  The children and their motion are updated in place,
+ * where null derivatives that remain zero stay null.  Members that
+ * leave their index cell release it when they held it, and take
+ * their new cell when it is vacant, as for {@link
+ * Spacetime#append(Spacetime)}.  All cells left are released before
+ * any are taken. </p>
+ *
+ * <p> The children are not copied, so that a container advancing
+ * children shared with a copy on write clone first replaces them with
+ * {@link Spacetime#edit(int)}. </p>
+ *
+ * @see Spacetime#advance(float,ForkJoinPool)
+ */
+public class Integrator
+    extends Object
+{
+    /**
+     * Number of members stepped without splitting
+     */
+    protected final static int Threshold = 4096;
+
+
+    protected final float resolution;
+
+    protected final int[] members;
+
+    protected final Spacetime[] children;
+
+    protected final float[] x, y, z;
+
+    protected final float[] dx1, dx2, dx3, dy1, dy2, dy3, dz1, dz2, dz3;
+
+    protected final float[] clock;
+
+    protected final int[] cells;
+
+    protected final boolean[] moved;
+    /**
+     * Container list length when built
+     */
+    public final int size;
+    /**
+     * Container modification count when built or last advanced
+     */
+    public int modified;
+
+
+    /**
+     * Pack the moving children of the container.
+     */
+    public Integrator(Spacetime container){
+        super();
+        final float r = container.resolution;
+        final int size = container.size();
+
+        this.resolution = r;
+        this.size = size;
+        this.modified = container.modified;
+
+        int count = 0;
+        for (int cc = 0; cc < size; cc++){
+            if (Moving((Spacetime)container.get(cc)))
+                count += 1;
+        }
+        this.members = new int[count];
+        this.children = new Spacetime[count];
+        this.x = new float[count];
+        this.y = new float[count];
+        this.z = new float[count];
+        this.dx1 = new float[count];
+        this.dx2 = new float[count];
+        this.dx3 = new float[count];
+        this.dy1 = new float[count];
+        this.dy2 = new float[count];
+        this.dy3 = new float[count];
+        this.dz1 = new float[count];
+        this.dz2 = new float[count];
+        this.dz3 = new float[count];
+        this.clock = new float[count];
+        this.cells = new int[count<<2];
+        this.moved = new boolean[count];
+
+        for (int cc = 0, m = 0; cc < size; cc++){
+            final Spacetime child = (Spacetime)container.get(cc);
+            if (Moving(child)){
+                final SpacetimeMotion motion = child.motion;
+                this.members[m] = cc;
+                this.children[m] = child;
+                this.x[m] = child.x.floatValue();
+                this.y[m] = child.y.floatValue();
+                this.z[m] = (null == child.z)?(Float.NaN):(child.z.floatValue());
+                this.dx1[m] = SpacetimeMotion.Value(motion.dx1);
+                this.dx2[m] = SpacetimeMotion.Value(motion.dx2);
+                this.dx3[m] = SpacetimeMotion.Value(motion.dx3);
+                this.dy1[m] = SpacetimeMotion.Value(motion.dy1);
+                this.dy2[m] = SpacetimeMotion.Value(motion.dy2);
+                this.dy3[m] = SpacetimeMotion.Value(motion.dy3);
+                this.dz1[m] = SpacetimeMotion.Value(motion.dz1);
+                this.dz2[m] = SpacetimeMotion.Value(motion.dz2);
+                this.dz3[m] = SpacetimeMotion.Value(motion.dz3);
+                this.clock[m] = (null == motion.t)?(Float.NaN):(motion.t.floatValue());
+                final int k = (m<<2);
+                this.cells[k] = Key.IndexRep(this.x[m],r);
+                this.cells[k+1] = Key.IndexRep(this.y[m],r);
+                this.cells[k+2] = Key.IndexRep(STL.Value(child.z),r);
+                this.cells[k+3] = Key.IndexRep(STL.Value(child.t),r);
+                m += 1;
+            }
+        }
+    }
+
+
+    /**
+     * @return Number of moving children
+     */
+    public final int members(){
+        return this.members.length;
+    }
+    /**
+     * Advance the members and update the container index for the
+     * members that changed cells.
+     *
+     * @param container Container of this integrator
+     * @param dt Time interval
+     * @param pool Fork join pool, or null
+     * @return Number of members that changed cells
+     */
+    public int advance(Spacetime container, float dt, ForkJoinPool pool){
+        final int count = this.members.length;
+        if (0 == count)
+            return 0;
+        else {
+            final Step step = new Step(dt,0,count);
+            if (null != pool)
+                pool.invoke(step);
+            else
+                step.compute();
+            /*
+             * Index cells of the members that moved, vacated before
+             * any are taken so that the update is independent of
+             * list order
+             */
+            int moved = 0;
+            final SpatialHash stx = container.stx;
+            final int[] cells = this.cells;
+            if (null != stx){
+                for (int m = 0; m < count; m++){
+                    if (this.moved[m]){
+                        final int k = (m<<2);
+                        final int x = cells[k], y = cells[k+1], z = cells[k+2], t = cells[k+3];
+
+                        if (this.members[m] == stx.get(x,y,z,t))
+                            stx.remove(x,y,z,t);
+                    }
+                }
+            }
+            for (int m = 0; m < count; m++){
+                if (this.moved[m]){
+                    moved += 1;
+
+                    final int k = (m<<2);
+                    final int nx = Key.IndexRep(this.x[m],this.resolution);
+                    final int ny = Key.IndexRep(this.y[m],this.resolution);
+                    final int nz = Key.IndexRep(this.z[m],this.resolution);
+
+                    if (null != stx)
+                        stx.add(nx,ny,nz,cells[k+3],this.members[m]);
+
+                    cells[k] = nx;
+                    cells[k+1] = ny;
+                    cells[k+2] = nz;
+                }
+            }
+            return moved;
+        }
+    }
+    /**
+     * Update the children of a range of members from the packed
+     * arrays
+     */
+    protected void store(int start, int end){
+        for (int m = start; m < end; m++){
+            final Spacetime child = this.children[m];
+            final SpacetimeMotion motion = child.motion;
+
+            child.x = this.x[m];
+            child.y = this.y[m];
+            if (null != child.z)
+                child.z = this.z[m];
+
+            motion.dx1 = Store(motion.dx1,this.dx1[m]);
+            motion.dx2 = Store(motion.dx2,this.dx2[m]);
+            motion.dy1 = Store(motion.dy1,this.dy1[m]);
+            motion.dy2 = Store(motion.dy2,this.dy2[m]);
+            motion.dz1 = Store(motion.dz1,this.dz1[m]);
+            motion.dz2 = Store(motion.dz2,this.dz2[m]);
+
+            if (null != motion.t)
+                motion.t = this.clock[m];
+        }
+    }
+
+    /**
+     * Member range task
+     */
+    protected class Step
+        extends RecursiveAction
+    {
+        protected final float dt;
+
+        protected final int start, end;
+
+
+        protected Step(float dt, int start, int end){
+            super();
+            this.dt = dt;
+            this.start = start;
+            this.end = end;
+        }
+
+
+        protected void compute(){
+            final int start = this.start, end = this.end;
+            if (Threshold >= (end-start)){
+                final Integrator integrator = Integrator.this;
+                final float dt = this.dt;
+
+                Step(integrator.x,integrator.dx1,integrator.dx2,integrator.dx3,dt,start,end);
+                Step(integrator.y,integrator.dy1,integrator.dy2,integrator.dy3,dt,start,end);
+                Step(integrator.z,integrator.dz1,integrator.dz2,integrator.dz3,dt,start,end);
+
+                final float[] clock = integrator.clock;
+                for (int m = start; m < end; m++){
+                    clock[m] += dt;
+                }
+                /*
+                 * Members leaving their cells
+                 */
+                final float r = integrator.resolution;
+                final int[] cells = integrator.cells;
+                final float[] x = integrator.x, y = integrator.y, z = integrator.z;
+                final boolean[] moved = integrator.moved;
+                for (int m = start; m < end; m++){
+                    final int k = (m<<2);
+                    moved[m] = (cells[k] != Key.IndexRep(x[m],r) ||
+                                cells[k+1] != Key.IndexRep(y[m],r) ||
+                                cells[k+2] != Key.IndexRep(z[m],r));
+                }
+                integrator.store(start,end);
+            }
+            else {
+                final int middle = ((start+end)>>>1);
+
+                invokeAll(new Step(this.dt,start,middle),
+                          new Step(this.dt,middle,end));
+            }
+        }
+    }
+
+    /**
+     * @return The child has X, Y and motion
+     */
+    protected final static boolean Moving(Spacetime child){
+
+        return (null != child && null != child.x && null != child.y && null != child.motion);
+    }
+    /**
+     * Advance one ordinate and its derivatives over a range of
+     * members.
+     */
+    protected final static void Step(float[] p, float[] d1, float[] d2, float[] d3, float dt, int start, int end){
+        final float h2 = (dt*dt*0.5f);
+        for (int m = start; m < end; m++){
+            p[m] += SpacetimeMotion.Delta(d1[m],d2[m],d3[m],dt);
+            d1[m] += (d2[m]*dt + d3[m]*h2);
+            d2[m] += (d3[m]*dt);
+        }
+    }
+    /**
+     * @return Null for a null derivative remaining zero
+     */
+    protected final static Float Store(Float term, float value){
+        if (null == term && 0.0f == value)
+            return null;
+        else
+            return value;
+    }
+}
@@ -27,6 +27,52 @@ public class Key
     extends Object
     implements java.lang.Comparable<Key>
 {
+    /**
+     * Key order, selected per container.
+     * 
+     * @see Spacetime#setKeyScheme(Key.Scheme)
+     */
+    public enum Scheme
+        implements java.util.Comparator<Key>
+    {
+        /**
+         * Lexicographic order of X, Y, Z and T
+         */
+        Lexical,
+        /**
+         * Z-order of X, Y, Z and T, and lexicographic order of equal
+         * codes
+         */
+        Morton;
+
+
+        public int compare(Key a, Key b){
+            switch(this){
+            case Morton:
+                final long ma = (a.morton() ^ Long.MIN_VALUE);
+                final long mb = (b.morton() ^ Long.MIN_VALUE);
+                if (ma != mb)
+                    return (ma < mb)?(-1):(+1);
+                else
+                    return a.compareTo(b);
+            default:
+                return a.compareTo(b);
+            }
+        }
+        /**
+         * The Morton code orders keys only, as it keeps sixteen bits
+         * of each index value and would collide cells a multiple of
+         * 65536 apart.
+         * 
+         * @return Hash of the full cell index values, for every
+         * scheme
+         */
+        public int hash(int x, int y, int z, int t){
+
+            return SpatialHash.Hash(x,y,z,t);
+        }
+    }
+
     /**
      * 
      * @param ordinal Dimension ordinate 
@@ -75,64 +121,30 @@ public class Key
      * @param r Index resolution operator
      */
     public Key(float x, float y, float z, float t, float r){
+        this(IndexRep(x,r),IndexRep(y,r),IndexRep(z,r),IndexRep(t,r));
+    }
+    /**
+     * @param x Index value first dimension
+     * @param y Index value second dimension
+     * @param z Index value third dimension
+     * @param t Index value fourth dimension
+     */
+    protected Key(int x, int y, int z, int t){
         super();
-        this.x = IndexRep(x,r);
-        this.y = IndexRep(y,r);
-        this.z = IndexRep(z,r);
-        this.t = IndexRep(t,r);
-
-        int h = 0;
-
-        hash:
-        for (int d = 0; d < 4; d++){
-
-            ordinal:
-            switch(d){
-            case 0:
-                if (0 != this.x){
-
-                    h = this.hash(d,h,this.x);
-                    break ordinal;
-                }
-                else
-                    break hash;
-
-            case 1:
-                if (0 != this.y){
-
-                    h = this.hash(d,h,this.y);
-                    break ordinal;
-                }
-                else
-                    break hash;
-            case 2:
-                if (0 != this.z){
-
-                    h = this.hash(d,h,this.z);
-                    break ordinal;
-                }
-                else
-                    break hash;
-            case 3:
-                if (0 != this.t){
-
-                    h = this.hash(d,h,this.t);
-                    break ordinal;
-                }
-                else
-                    break hash;
-            }
-        }
-        this.h = h;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.t = t;
+        this.h = SpatialHash.Hash(x,y,z,t);
     }
 
 
     /**
-     * Hash performance in a small space improves with higher resolution
+     * @return Z-order code
+     * @see #Morton(int,int,int,int)
      */
-    public int hash(int index, int hash, int ordinal){
-
-        return (hash^ordinal);
+    public long morton(){
+        return Morton(this.x,this.y,this.z,this.t);
     }
     public int hashCode(){
         return this.h;
@@ -156,54 +168,45 @@ public class Key
         }
     }
     /**
-     * Sort relation
+     * Lexicographic order of X, Y, Z and T
      */
     public int compareTo(Key that){
 
         if (null == that)
             return +1;
-        else if (this.x >= that.x){
+        else if (this.x != that.x)
+            return (this.x < that.x)?(-1):(+1);
+        else if (this.y != that.y)
+            return (this.y < that.y)?(-1):(+1);
+        else if (this.z != that.z)
+            return (this.z < that.z)?(-1):(+1);
+        else if (this.t != that.t)
+            return (this.t < that.t)?(-1):(+1);
+        else
+            return 0;
+    }
 
-            if (this.y >= that.y){
+    /**
+     * Interleave the low sixteen bits of each index value, offset to
+     * order negative before positive values, from the lowest bit of X
+     * to the highest bit of T.  Cells near in space are near in the
+     * code for index values within sixteen bits.
+     *
+     * @return Z-order code
+     */
+    public final static long Morton(int x, int y, int z, int t){
 
-                if (this.z >= that.z){
-                    /*
-                     * +X,+Y,+Z,*T
-                     */
-                    if (this.x == that.x && this.y == that.y && this.z == that.z && this.t == that.t)
-                        return 0;
-                    else if (this.t >= that.t){
-                        /*
-                         * +X,+Y,+Z,+T
-                         */
-                        return +1;
-                    }
-                    else {
-                        /*
-                         * +X,+Y,+Z,-T
-                         */
-                        return -1;
-                    }
-                }
-                else {
-                    /*
-                     * +X,+Y,-Z,*T
-                     */
-                    return -1;
-                }
-            }
-            else {
-                /*
-                 * +X,-Y,*Z,*T
-                 */
-                return -1;
-            }
-        }
-        else {
-            /*
-             * -X,*Y,*Z,*T
-             */
-            return -1;
-        }
+        return (Spread(x) | (Spread(y)<<1) | (Spread(z)<<2) | (Spread(t)<<3));
+    }
+    /**
+     * @return Sixteen bits of the offset value, to every fourth bit
+     */
+    protected final static long Spread(int value){
+        long bits = ((value + 0x8000) & 0xFFFFL);
+        bits = (bits | (bits << 24)) & 0x000000FF000000FFL;
+        bits = (bits | (bits << 12)) & 0x000F000F000F000FL;
+        bits = (bits | (bits << 6)) & 0x0303030303030303L;
+        bits = (bits | (bits << 3)) & 0x1111111111111111L;
+        return bits;
     }
 }
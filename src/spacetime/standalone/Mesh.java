@@ -0,0 +1,416 @@
+/*
+ * Spacetime Standalone
+ * Copyright (C) 2013, John Pritchard.
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package spacetime.standalone;
+
+/**
+ * Compact triangle mesh storing facet normals and vertices in
+ * primitive arrays indexed by facet number.  A facet costs twelve
+ * floats, where the {@link Face} schema costs a face list and four
+ * space time objects with boxed ordinates.
+ *
+ * <p> The spacetime interfaces are implemented by views: {@link
+ * Facet} and {@link Point} objects are produced on demand and read
+ * through to the arrays.  The mesh is loaded and stored by {@link
+ * STL} as a {@link STL.Visitor}. </p>
+ *
+ * <pre>
+ * normals  { nx, ny, nz }            per facet
+ * vertices { ax, ay, az, bx, by, bz, cx, cy, cz } per facet
+ * vtx      { cell: facet }           first facet per vertex cell, on demand
+ * </pre>
+ *
+ * @see STL#readMesh(java.io.File)
+ */
+public class Mesh
+    extends Object
+    implements STL.Visitor,
+               spacetime.SpacetimeFrame<java.lang.Float>,
+               spacetime.Spacetime<java.lang.Float,Mesh.Facet>
+{
+    /**
+     * Facet view
+     */
+    public class Facet
+        extends Object
+        implements spacetime.SpacetimeObject<java.lang.Float>
+    {
+        public final int index;
+
+
+        protected Facet(int index){
+            super();
+            this.index = index;
+        }
+
+
+        public Point n(){
+            return new Point(Mesh.this.normals,(3*this.index));
+        }
+        public Point a(){
+            return new Point(Mesh.this.vertices,(9*this.index));
+        }
+        public Point b(){
+            return new Point(Mesh.this.vertices,(9*this.index)+3);
+        }
+        public Point c(){
+            return new Point(Mesh.this.vertices,(9*this.index)+6);
+        }
+        public Mesh getSpacetimeFrame(){
+            return Mesh.this;
+        }
+        /**
+         * @return Centroid
+         */
+        public Float getSpacetimeX(){
+            return Mesh.this.centroid(this.index,0);
+        }
+        public Float getSpacetimeY(){
+            return Mesh.this.centroid(this.index,1);
+        }
+        public Float getSpacetimeZ(){
+            return Mesh.this.centroid(this.index,2);
+        }
+        public Float getSpacetimeT(){
+            return null;
+        }
+        public SpacetimeBounds getSpacetimeBounds(){
+            return null;
+        }
+        public SpacetimeMotion getSpacetimeMotion(){
+            return null;
+        }
+    }
+    /**
+     * Normal or vertex view
+     */
+    public class Point
+        extends Object
+        implements spacetime.SpacetimeObject<java.lang.Float>
+    {
+        protected final float[] array;
+
+        protected final int ofs;
+
+
+        protected Point(float[] array, int ofs){
+            super();
+            this.array = array;
+            this.ofs = ofs;
+        }
+
+
+        public Mesh getSpacetimeFrame(){
+            return Mesh.this;
+        }
+        public Float getSpacetimeX(){
+            return this.array[this.ofs];
+        }
+        public Float getSpacetimeY(){
+            return this.array[this.ofs+1];
+        }
+        public Float getSpacetimeZ(){
+            return this.array[this.ofs+2];
+        }
+        public Float getSpacetimeT(){
+            return null;
+        }
+        public SpacetimeBounds getSpacetimeBounds(){
+            return null;
+        }
+        public SpacetimeMotion getSpacetimeMotion(){
+            return null;
+        }
+    }
+    /**
+     * Facets iteration
+     */
+    protected class Iterator
+        extends Object
+        implements java.util.Iterator<Facet>
+    {
+        protected final int count;
+
+        protected int index;
+
+
+        protected Iterator(){
+            super();
+            this.count = Mesh.this.count;
+        }
+
+
+        public boolean hasNext(){
+            return (this.index < this.count);
+        }
+        public Facet next(){
+            if (this.index < this.count)
+                return new Facet(this.index++);
+            else
+                throw new java.util.NoSuchElementException();
+        }
+        public void remove(){
+            throw new UnsupportedOperationException();
+        }
+    }
+
+
+    /**
+     * Multiply ordinals by resolution for index
+     */
+    protected float resolution = 1.0f;
+
+    protected float[] normals;
+
+    protected float[] vertices;
+
+    protected int count;
+    /**
+     * Vertex cell index, built on demand and maintained as facets
+     * are added
+     */
+    protected transient SpatialHash vtx;
+
+
+    public Mesh(){
+        this(16);
+    }
+    /**
+     * @param capacity Number of facets
+     */
+    public Mesh(int capacity){
+        super();
+        capacity = Math.max(1,capacity);
+        this.normals = new float[3*capacity];
+        this.vertices = new float[9*capacity];
+    }
+    protected Mesh(float resolution){
+        this();
+        this.resolution = Math.abs(resolution);
+    }
+
+
+    public final int size(){
+        return this.count;
+    }
+    public final boolean isEmpty(){
+        return (0 == this.count);
+    }
+    public void clear(){
+        this.count = 0;
+        this.vtx = null;
+    }
+    /**
+     * @param facet Facet number
+     * @param axis Zero, one or two for X, Y or Z
+     */
+    public final float normal(int facet, int axis){
+        return this.normals[(3*facet)+axis];
+    }
+    /**
+     * @param facet Facet number
+     * @param corner Zero, one or two for A, B or C
+     * @param axis Zero, one or two for X, Y or Z
+     */
+    public final float vertex(int facet, int corner, int axis){
+        return this.vertices[(9*facet)+(3*corner)+axis];
+    }
+    /**
+     * @param facet Facet number
+     * @param axis Zero, one or two for X, Y or Z
+     */
+    public final float centroid(int facet, int axis){
+        final float[] vertices = this.vertices;
+        final int ofs = (9*facet)+axis;
+        return ((vertices[ofs]+vertices[ofs+3]+vertices[ofs+6])/3.0f);
+    }
+    public Facet get(int facet){
+        if (-1 < facet && facet < this.count)
+            return new Facet(facet);
+        else
+            return null;
+    }
+    /**
+     * Facet having a vertex in the index cell, by the vertex cell
+     * index.
+     * 
+     * @return Least numbered facet having a vertex in the cell, or
+     * null
+     */
+    public <R extends Facet> R get(Float x, Float y, Float z, Float t){
+
+        if (null == x || null == y)
+            return this.get(0f,0f,0f,0f);
+        else
+            return this.get(x.floatValue(),y.floatValue(),STL.Value(z),STL.Value(t));
+    }
+    /**
+     * Facet having a vertex in the index cell, by the vertex cell
+     * index, without allocation for a miss.
+     * 
+     * @return Least numbered facet having a vertex in the cell, or
+     * null
+     */
+    public <R extends Facet> R get(float x, float y, float z, float t){
+        final float r = this.resolution;
+
+        if (0 != Key.IndexRep(t,r))
+            return null;
+        else {
+            final int facet = this.vtx().get(Key.IndexRep(x,r),Key.IndexRep(y,r),Key.IndexRep(z,r),0);
+            if (-1 < facet)
+                return (R)new Facet(facet);
+            else
+                return null;
+        }
+    }
+    /**
+     * Append a copy of the facet, which may be a view of another
+     * mesh.
+     */
+    public <R extends Facet> R put(R p){
+        final Mesh from = p.getSpacetimeFrame();
+        final int index = this.count;
+
+        this.ensure(index+1);
+
+        System.arraycopy(from.normals,(3*p.index),this.normals,(3*index),3);
+        System.arraycopy(from.vertices,(9*p.index),this.vertices,(9*index),9);
+
+        this.added(index);
+
+        return p;
+    }
+    /**
+     * @param facet Normal, first, second, and third vertex
+     * coordinates as twelve X, Y, Z values
+     * @return Facet number
+     */
+    public int add(float[] facet){
+        final int index = this.count;
+
+        this.ensure(index+1);
+
+        System.arraycopy(facet,0,this.normals,(3*index),3);
+        System.arraycopy(facet,3,this.vertices,(9*index),9);
+
+        this.added(index);
+
+        return index;
+    }
+    public void facet(long index, float[] facet){
+
+        this.add(facet);
+    }
+    /**
+     * Stream the facets of the mesh, as to {@link STLWriter}.
+     */
+    public void scan(STL.Visitor v){
+
+        final float[] normals = this.normals;
+        final float[] vertices = this.vertices;
+        final float[] facet = new float[12];
+
+        for (int index = 0, count = this.count; index < count; index++){
+
+            System.arraycopy(normals,(3*index),facet,0,3);
+            System.arraycopy(vertices,(9*index),facet,3,9);
+
+            v.facet(index,facet);
+        }
+    }
+    /**
+     * @param capacity Number of facets
+     */
+    public void ensure(int capacity){
+        final int length = (this.normals.length / 3);
+        if (capacity > length){
+            final int grow = Math.max(capacity,(length<<1));
+
+            float[] copier = new float[3*grow];
+            System.arraycopy(this.normals,0,copier,0,(3*this.count));
+            this.normals = copier;
+
+            copier = new float[9*grow];
+            System.arraycopy(this.vertices,0,copier,0,(9*this.count));
+            this.vertices = copier;
+        }
+    }
+    /**
+     * Release unused capacity.
+     */
+    public void trim(){
+        final int count = Math.max(1,this.count);
+        if ((3*count) < this.normals.length){
+
+            float[] copier = new float[3*count];
+            System.arraycopy(this.normals,0,copier,0,(3*this.count));
+            this.normals = copier;
+
+            copier = new float[9*count];
+            System.arraycopy(this.vertices,0,copier,0,(9*this.count));
+            this.vertices = copier;
+        }
+    }
+    /**
+     * Count the facet written at the end of the columns, and index
+     * its vertices when the index is present
+     */
+    protected void added(int index){
+        this.count = (index+1);
+
+        final SpatialHash vtx = this.vtx;
+        if (null != vtx)
+            this.index(vtx,index);
+    }
+    /**
+     * @return Vertex cell index of the facets
+     */
+    protected SpatialHash vtx(){
+        SpatialHash vtx = this.vtx;
+        if (null == vtx){
+            final int count = this.count;
+            vtx = new SpatialHash(this.resolution,count);
+            for (int index = 0; index < count; index++){
+
+                this.index(vtx,index);
+            }
+            this.vtx = vtx;
+        }
+        return vtx;
+    }
+    /**
+     * Add the cells of the vertices of the facet, held by the first
+     * facet to add them
+     */
+    protected void index(SpatialHash vtx, int index){
+        final float[] vertices = this.vertices;
+        final float r = this.resolution;
+
+        for (int corner = 0, ofs = (9*index); corner < 3; corner++, ofs += 3){
+
+            vtx.add(Key.IndexRep(vertices[ofs],r),Key.IndexRep(vertices[ofs+1],r),Key.IndexRep(vertices[ofs+2],r),0,index);
+        }
+    }
+    public <R extends Facet> java.lang.Iterable<R> iterable(){
+        return (Iterable<R>)this;
+    }
+    public java.util.Iterator<Facet> iterator(){
+        return new Iterator();
+    }
+}
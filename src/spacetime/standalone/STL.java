@@ -18,6 +18,9 @@
  */
 package spacetime.standalone;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -30,8 +33,15 @@ import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.util.StringTokenizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * This class exploits the array list implementation of {@link
@@ -60,6 +70,13 @@ import java.util.StringTokenizer;
  * first, second, and third vertices.  Within each face the normal is
  * not indexed, and the face vertices are indexed. </p>
  * 
+ * <p> Both the ASCII and binary STL encodings are read and written.
+ * The binary encoding is an eighty byte header, an unsigned 32 bit
+ * facet count, and then one fifty byte little endian record per
+ * facet: normal, first, second, and third vertices as 32 bit floats,
+ * and a 16 bit attribute.  The {@link #read(java.io.InputStream)}
+ * method detects the encoding from the head of the stream. </p>
+ * 
  * @see Face
  */
 public class STL<ST extends Face>
@@ -70,9 +87,46 @@ public class STL<ST extends Face>
     public enum Terms {
         solid, facet, normal, outer, loop, vertex, endloop, endfacet, endsolid;
     }
+    /**
+     * Facet consumer for the scan methods, which stream STL without
+     * producing a Face tree.
+     */
+    public interface Visitor {
+        /**
+         * @param index Facet number from zero
+         * @param facet Normal, first, second, and third vertex
+         * coordinates as twelve X, Y, Z values.  The array is reused
+         * for the next facet.
+         */
+        public void facet(long index, float[] facet);
+    }
     protected final static Class[] CCtorParameters = {
         Float.class, Float.class, Float.class
     };
+    /**
+     * Binary STL header length
+     */
+    public final static int BinaryHeader = 80;
+    /**
+     * Binary STL facet record length
+     */
+    public final static int BinaryRecord = 50;
+    /**
+     * Binary STL records per block in reading and writing
+     */
+    protected final static int BinaryBlock = 1024;
+    /**
+     * Length of input examined to detect the STL encoding
+     */
+    protected final static int Sniff = 512;
+    /**
+     * Minimum length of a parallel ASCII chunk
+     */
+    protected final static int ChunkMin = (1<<20);
+    /**
+     * Parallel ASCII chunks per thread, for balance
+     */
+    protected final static int ChunkParallel = 4;
 
 
 
@@ -132,51 +186,317 @@ public class STL<ST extends Face>
         return face.createVertex(x,y,z);
     }
 
+    /**
+     * Read ASCII or binary STL, detecting the encoding from the head
+     * of the stream.
+     */
     public ST read(InputStream in)
         throws IOException
+    {
+        if (!in.markSupported())
+            in = new BufferedInputStream(in);
+
+        in.mark(Sniff);
+        final byte[] head = new byte[Sniff];
+        final int len = Fill(in,head,0,Sniff);
+        in.reset();
+
+        if (IsASCII(head,len))
+            return this.readASCII(in);
+        else
+            return this.readBinary(in);
+    }
+    public ST readASCII(InputStream in)
+        throws IOException
     {
         return this.read(new LineNumberReader(new InputStreamReader(in,ASCII)));
     }
-    public ST read(LineNumberReader in)
+    public ST readBinary(InputStream in)
         throws IOException
     {
-        String lin;
-        ST st = this.create();
-        ST face = null;
+        final byte[] header = new byte[BinaryHeader];
+        if (BinaryHeader != Fill(in,header,0,BinaryHeader))
+            throw new EOFException("binary header");
 
+        final byte[] block = new byte[BinaryRecord*BinaryBlock];
+        if (4 != Fill(in,block,0,4))
+            throw new EOFException("binary count");
 
-        while (null != (lin = in.readLine())){
-            StringTokenizer strtok = new StringTokenizer(lin," ");
-            int count = strtok.countTokens();
-            if (0 < count){
-                Terms term = Terms.valueOf(strtok.nextToken());
+        final ByteBuffer buf = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+
+        long count = (buf.getInt(0) & 0xFFFFFFFFL);
+
+        final List<ST> faces = new ArrayList<ST>((int)Math.min(count,BinaryBlock));
+
+        while (0 < count){
+            final int records = (int)Math.min(count,BinaryBlock);
+            final int length = (records*BinaryRecord);
+
+            if (length != Fill(in,block,0,length))
+                throw new EOFException("binary facet");
+            else {
+                buf.clear();
+
+                this.readBinary(faces,buf,records);
+
+                count -= records;
+            }
+        }
+        final ST st = this.create();
+
+        st.faces(faces);
+
+        return st;
+    }
+    /**
+     * Read GZIP compressed ASCII or binary STL, inflating on a
+     * producer thread concurrently with parsing.
+     * 
+     * @see GZIPPipe
+     */
+    public ST readGZIP(InputStream in)
+        throws IOException
+    {
+        final GZIPPipe pipe = new GZIPPipe(in);
+        try {
+            return this.read(pipe);
+        }
+        finally {
+            pipe.close();
+        }
+    }
+    /**
+     * Read ASCII or binary STL from a mapped file, or GZIP
+     * compressed STL from the file.
+     */
+    public ST read(File file)
+        throws IOException
+    {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            final long size = channel.size();
+            if (Integer.MAX_VALUE < size){
+                /*
+                 * Beyond the reach of a single mapping
+                 */
+                return this.read(new BufferedInputStream(in));
+            }
+            else {
+                final MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,0L,size);
+
+                if (IsGZIP(map))
+                    return this.readGZIP(in);
+                else
+                    return this.read(map);
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+    /**
+     * Read ASCII or binary STL from a mapped file, parsing ASCII in
+     * parallel.
+     * 
+     * @see #readASCII(java.nio.ByteBuffer,java.util.concurrent.ForkJoinPool)
+     */
+    public ST read(File file, ForkJoinPool pool)
+        throws IOException
+    {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            final long size = channel.size();
+            if (Integer.MAX_VALUE < size){
+
+                return this.read(new BufferedInputStream(in));
+            }
+            else {
+                final MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,0L,size);
+
+                if (IsGZIP(map))
+                    return this.readGZIP(in);
+                else if (IsASCII(map))
+                    return this.readASCII(map,pool);
+                else
+                    return this.readBinary(map);
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+    /**
+     * Read ASCII or binary STL, detecting the encoding from the head
+     * of the buffer.
+     */
+    public ST read(ByteBuffer buf)
+        throws IOException
+    {
+        if (IsASCII(buf))
+            return this.readASCII(buf);
+        else
+            return this.readBinary(buf);
+    }
+    /**
+     * Scan ASCII STL in place.
+     */
+    public ST readASCII(ByteBuffer buf)
+        throws IOException
+    {
+        final Chunk chunk = new Chunk(buf);
+
+        chunk.compute();
+
+        final ST st = this.create();
+
+        st.faces(chunk.faces);
+
+        return st;
+    }
+    /**
+     * Scan ASCII STL in place with chunks of the buffer parsed in
+     * parallel.  The chunks begin at facet boundaries, and their
+     * faces are added to the root face in file order to produce the
+     * result of the sequential {@link #readASCII(java.nio.ByteBuffer)
+     * read}.
+     * 
+     * @param buf ASCII STL
+     * @param pool Parser threads
+     */
+    public ST readASCII(ByteBuffer buf, ForkJoinPool pool)
+        throws IOException
+    {
+        final int start = buf.position();
+        final int end = buf.limit();
+
+        final int count = (int)Math.max(1L,Math.min((long)pool.getParallelism()*ChunkParallel,
+                                                     (long)(end-start)/ChunkMin));
+
+        final List<Chunk> chunks = new ArrayList<Chunk>(count);
+        {
+            int begin = start;
+            for (int cc = 1; cc <= count && begin < end; cc++){
+
+                final int stop = (cc == count)?(end):(Boundary(buf,Math.max(begin,start+(int)(((long)(end-start)*cc)/count)),end));
+
+                if (begin < stop){
+                    final ByteBuffer slice = buf.duplicate();
+                    slice.limit(stop);
+                    slice.position(begin);
+
+                    chunks.add(new Chunk(slice));
+                }
+                begin = stop;
+            }
+        }
+
+        pool.invoke(new RecursiveAction(){
+                protected void compute(){
+                    invokeAll(chunks);
+                }
+            });
+
+        final ST st = this.create();
+
+        for (Chunk chunk: chunks){
+
+            st.faces(chunk.faces);
+
+            if (chunk.endsolid)
+                break;
+        }
+        return st;
+    }
+    public ST readBinary(ByteBuffer buf)
+        throws IOException
+    {
+        buf = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+        if (BinaryHeader+4 > buf.remaining())
+            throw new EOFException("binary header");
+        else {
+            final long count = (buf.getInt(BinaryHeader) & 0xFFFFFFFFL);
+
+            if ((count*BinaryRecord) > (buf.remaining()-BinaryHeader-4))
+                throw new EOFException("binary facet");
+            else {
+                final ST st = this.create();
+
+                buf.position(BinaryHeader+4);
+
+                final List<ST> faces = new ArrayList<ST>((int)count);
+
+                this.readBinary(faces,buf,(int)count);
+
+                st.faces(faces);
+
+                return st;
+            }
+        }
+    }
+    /**
+     * Parse the ASCII STL facets of a buffer, which may be a chunk
+     * beginning at a facet boundary.
+     */
+    protected class Chunk
+        extends RecursiveAction
+    {
+        protected final ByteBuffer buf;
+
+        protected final List<ST> faces = new ArrayList<ST>();
+        /**
+         * The chunk contains the end of the solid
+         */
+        protected boolean endsolid;
+
+
+        protected Chunk(ByteBuffer buf){
+            super();
+            this.buf = buf;
+        }
+
+
+        protected void compute(){
+            final STLScanner scan = new STLScanner(this.buf);
+
+            final List<ST> faces = this.faces;
+            ST face = null;
+
+            Terms term;
+
+            while (null != (term = scan.term())){
                 switch(term){
                 case solid:
+                    scan.line();
                     break;
                 case facet:
 
-                    face = this.create();
+                    face = STL.this.create();
 
-                    if (Terms.normal == Terms.valueOf(strtok.nextToken())){
+                    if (Terms.normal == scan.term()){
 
-                        float x = Float.parseFloat(strtok.nextToken());
-                        float y = Float.parseFloat(strtok.nextToken());
-                        float z = Float.parseFloat(strtok.nextToken());
+                        float x = scan.number();
+                        float y = scan.number();
+                        float z = scan.number();
 
-                        face.normal(this.createNormal(face,x,y,z));
+                        face.normal(STL.this.createNormal(face,x,y,z));
                     }
                     else
-                        throw new IllegalStateException("facet missing normal");
+                        throw new IllegalStateException(String.format("line %d: facet missing normal",scan.getLineNumber()));
                     break;
                 case outer:
+                    if (Terms.loop != scan.term())
+                        throw new IllegalStateException(String.format("line %d: outer missing loop",scan.getLineNumber()));
                     break;
                 case vertex:{
 
-                    float x = Float.parseFloat(strtok.nextToken());
-                    float y = Float.parseFloat(strtok.nextToken());
-                    float z = Float.parseFloat(strtok.nextToken());
+                    float x = scan.number();
+                    float y = scan.number();
+                    float z = scan.number();
 
-                    face.vertex(this.createVertex(face,x,y,z));
+                    face.vertex(STL.this.createVertex(face,x,y,z));
                     break;
                 }
                 case endloop:
@@ -184,22 +504,482 @@ public class STL<ST extends Face>
                     break;
                 case endfacet:
 
-                    st.face(face);
+                    faces.add(face);
                     break;
                 case endsolid:
 
-                    return st;
+                    this.endsolid = true;
+                    return;
                 default:
-                    throw new IllegalStateException(String.format("%s: %s",term.name(),lin));
+                    throw new IllegalStateException(String.format("line %d: %s",scan.getLineNumber(),term.name()));
                 }
             }
         }
+    }
+    /**
+     * @param faces Faces in file order, for the root face
+     * @param buf Little endian records at position
+     * @param records Number of records to read
+     */
+    protected void readBinary(List<ST> faces, ByteBuffer buf, int records){
+
+        for (int rec = 0; rec < records; rec++){
+
+            final ST face = this.create();
+
+            face.normal(this.createNormal(face,buf.getFloat(),buf.getFloat(),buf.getFloat()));
+
+            face.vertex(this.createVertex(face,buf.getFloat(),buf.getFloat(),buf.getFloat()));
+            face.vertex(this.createVertex(face,buf.getFloat(),buf.getFloat(),buf.getFloat()));
+            face.vertex(this.createVertex(face,buf.getFloat(),buf.getFloat(),buf.getFloat()));
+
+            buf.getShort();
+
+            faces.add(face);
+        }
+    }
+    /**
+     * @return Root face of the faces, added once in order
+     */
+    protected ST create(List<ST> faces){
+
+        final ST st = this.create();
+
+        st.faces(faces);
+
         return st;
     }
+    public ST read(LineNumberReader in)
+        throws IOException
+    {
+        final Decimal decimal = new Decimal();
+
+        String lin;
+        final List<ST> faces = new ArrayList<ST>();
+        ST face = null;
+
+
+        while (null != (lin = in.readLine())){
+            final int len = lin.length();
+            int pos = STLScanner.Space(lin,0,len);
+            if (pos < len){
+                int end = STLScanner.Token(lin,pos,len);
+                Terms term = STLScanner.Term(lin,pos,end);
+                if (null == term)
+                    throw new IllegalStateException(String.format("line %d: unrecognized term",in.getLineNumber()));
+                else {
+                    switch(term){
+                    case solid:
+                        break;
+                    case facet:
+
+                        face = this.create();
+
+                        pos = STLScanner.Space(lin,end,len);
+                        end = STLScanner.Token(lin,pos,len);
+
+                        if (Terms.normal == STLScanner.Term(lin,pos,end)){
+
+                            float x = decimal.scan(lin,end,len);
+                            float y = decimal.scan(lin,decimal.end,len);
+                            float z = decimal.scan(lin,decimal.end,len);
+
+                            face.normal(this.createNormal(face,x,y,z));
+                        }
+                        else
+                            throw new IllegalStateException("facet missing normal");
+                        break;
+                    case outer:
+                        break;
+                    case vertex:{
+
+                        float x = decimal.scan(lin,end,len);
+                        float y = decimal.scan(lin,decimal.end,len);
+                        float z = decimal.scan(lin,decimal.end,len);
+
+                        face.vertex(this.createVertex(face,x,y,z));
+                        break;
+                    }
+                    case endloop:
+
+                        break;
+                    case endfacet:
+
+                        faces.add(face);
+                        break;
+                    case endsolid:
+
+                        return this.create(faces);
+                    default:
+                        throw new IllegalStateException(String.format("%s: %s",term.name(),lin));
+                    }
+                }
+            }
+        }
+        return this.create(faces);
+    }
+    /**
+     * Stream ASCII or binary STL to the visitor, detecting the
+     * encoding from the head of the stream.  Memory use is constant
+     * in the size of the input.
+     * 
+     * @return Number of facets
+     */
+    public long scan(InputStream in, Visitor v)
+        throws IOException
+    {
+        if (!in.markSupported())
+            in = new BufferedInputStream(in);
+
+        in.mark(Sniff);
+        final byte[] head = new byte[Sniff];
+        final int len = Fill(in,head,0,Sniff);
+        in.reset();
+
+        if (IsASCII(head,len))
+            return this.scanASCII(in,v);
+        else
+            return this.scanBinary(in,v);
+    }
+    /**
+     * Stream GZIP compressed ASCII or binary STL to the visitor,
+     * inflating on a producer thread concurrently with scanning.
+     * 
+     * @return Number of facets
+     * @see GZIPPipe
+     */
+    public long scanGZIP(InputStream in, Visitor v)
+        throws IOException
+    {
+        final GZIPPipe pipe = new GZIPPipe(in);
+        try {
+            return this.scan(pipe,v);
+        }
+        finally {
+            pipe.close();
+        }
+    }
+    /**
+     * Stream ASCII or binary STL from a mapped file, or GZIP
+     * compressed STL from the file, to the visitor.
+     * 
+     * @return Number of facets
+     */
+    public long scan(File file, Visitor v)
+        throws IOException
+    {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            final long size = channel.size();
+            if (Integer.MAX_VALUE < size){
+
+                return this.scan(new BufferedInputStream(in),v);
+            }
+            else {
+                final MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,0L,size);
+
+                if (IsGZIP(map))
+                    return this.scanGZIP(in,v);
+                else
+                    return this.scan(map,v);
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+    /**
+     * @return Number of facets
+     */
+    public long scan(ByteBuffer buf, Visitor v)
+        throws IOException
+    {
+        if (IsASCII(buf))
+            return this.scanASCII(buf,v);
+        else
+            return this.scanBinary(buf,v);
+    }
+    /**
+     * @return Number of facets
+     */
+    public long scanASCII(InputStream in, Visitor v)
+        throws IOException
+    {
+        final LineNumberReader reader = new LineNumberReader(new InputStreamReader(in,ASCII));
+        final Decimal decimal = new Decimal();
+        final float[] facet = new float[12];
+        long count = 0L;
+        int fv = 0;
+
+        String lin;
+        while (null != (lin = reader.readLine())){
+            final int len = lin.length();
+            int pos = STLScanner.Space(lin,0,len);
+            if (pos < len){
+                int end = STLScanner.Token(lin,pos,len);
+                Terms term = STLScanner.Term(lin,pos,end);
+                if (null == term)
+                    throw new IllegalStateException(String.format("line %d: unrecognized term",reader.getLineNumber()));
+                else {
+                    switch(term){
+                    case facet:
+
+                        pos = STLScanner.Space(lin,end,len);
+                        end = STLScanner.Token(lin,pos,len);
+
+                        if (Terms.normal == STLScanner.Term(lin,pos,end)){
+
+                            facet[0] = decimal.scan(lin,end,len);
+                            facet[1] = decimal.scan(lin,decimal.end,len);
+                            facet[2] = decimal.scan(lin,decimal.end,len);
+                            fv = 3;
+                        }
+                        else
+                            throw new IllegalStateException(String.format("line %d: facet missing normal",reader.getLineNumber()));
+                        break;
+                    case vertex:
+                        if (3 <= fv && 12 > fv){
+
+                            facet[fv++] = decimal.scan(lin,end,len);
+                            facet[fv++] = decimal.scan(lin,decimal.end,len);
+                            facet[fv++] = decimal.scan(lin,decimal.end,len);
+                            break;
+                        }
+                        else
+                            throw new IllegalStateException(String.format("line %d: facet vertices",reader.getLineNumber()));
+                    case endfacet:
+                        if (12 == fv){
+                            v.facet(count++,facet);
+                            fv = 0;
+                            break;
+                        }
+                        else
+                            throw new IllegalStateException(String.format("line %d: facet vertices",reader.getLineNumber()));
+                    case endsolid:
+
+                        return count;
+                    default:
+                        break;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+    /**
+     * @return Number of facets
+     */
+    public long scanASCII(ByteBuffer buf, Visitor v)
+        throws IOException
+    {
+        return Scan(new STLScanner(buf),new float[12],v);
+    }
+    /**
+     * @return Number of facets
+     */
+    public long scanBinary(InputStream in, Visitor v)
+        throws IOException
+    {
+        final byte[] header = new byte[BinaryHeader];
+        if (BinaryHeader != Fill(in,header,0,BinaryHeader))
+            throw new EOFException("binary header");
+
+        final byte[] block = new byte[BinaryRecord*BinaryBlock];
+        if (4 != Fill(in,block,0,4))
+            throw new EOFException("binary count");
+
+        final ByteBuffer buf = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+
+        final float[] facet = new float[12];
+
+        final long count = (buf.getInt(0) & 0xFFFFFFFFL);
+
+        long index = 0L;
+
+        while (index < count){
+            final int records = (int)Math.min(count-index,BinaryBlock);
+            final int length = (records*BinaryRecord);
+
+            if (length != Fill(in,block,0,length))
+                throw new EOFException("binary facet");
+            else {
+                buf.clear();
+
+                index = Scan(buf,records,index,facet,v);
+            }
+        }
+        return count;
+    }
+    /**
+     * @return Number of facets
+     */
+    public long scanBinary(ByteBuffer buf, Visitor v)
+        throws IOException
+    {
+        buf = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+        if (BinaryHeader+4 > buf.remaining())
+            throw new EOFException("binary header");
+        else {
+            final long count = (buf.getInt(BinaryHeader) & 0xFFFFFFFFL);
+
+            if ((count*BinaryRecord) > (buf.remaining()-BinaryHeader-4))
+                throw new EOFException("binary facet");
+            else {
+                buf.position(BinaryHeader+4);
+
+                return Scan(buf,(int)count,0L,new float[12],v);
+            }
+        }
+    }
+    /**
+     * Read ASCII or binary STL from a mapped file into a compact
+     * mesh.
+     */
+    public Mesh readMesh(File file)
+        throws IOException
+    {
+        final Mesh mesh = new Mesh();
+
+        this.scan(file,mesh);
+
+        mesh.trim();
+
+        return mesh;
+    }
+    /**
+     * Read ASCII or binary STL into a compact mesh.
+     */
+    public Mesh readMesh(InputStream in)
+        throws IOException
+    {
+        final Mesh mesh = new Mesh();
+
+        this.scan(in,mesh);
+
+        mesh.trim();
+
+        return mesh;
+    }
+    /**
+     * Read ASCII or binary STL from a mapped file, welding vertices
+     * into a shared pool.
+     * 
+     * @param resolution Weld cells per unit
+     */
+    public Weld readWeld(File file, float resolution)
+        throws IOException
+    {
+        final Weld weld = new Weld(resolution);
+
+        this.scan(file,weld);
+
+        return weld;
+    }
+    /**
+     * Read ASCII or binary STL, welding vertices into a shared pool.
+     * 
+     * @param resolution Weld cells per unit
+     */
+    public Weld readWeld(InputStream in, float resolution)
+        throws IOException
+    {
+        final Weld weld = new Weld(resolution);
+
+        this.scan(in,weld);
+
+        return weld;
+    }
+    /**
+     * Read ASCII or binary STL from a mapped file, and weld the
+     * vertices of the faces so that coincident corners share one
+     * vertex object.
+     * 
+     * @param resolution Weld cells per unit
+     * @see Weld#weld(Face)
+     */
+    public ST read(File file, float resolution)
+        throws IOException
+    {
+        return new Weld(resolution).weld(this.read(file));
+    }
+    /**
+     * Write a compact mesh as ASCII STL.
+     */
+    public void write(OutputStream out, Mesh mesh)
+        throws IOException
+    {
+        final STLWriter writer = new STLWriter(out);
+
+        writer.solid();
+
+        mesh.scan(writer);
+
+        writer.endsolid();
+    }
+    /**
+     * Write a compact mesh as binary STL.
+     */
+    public void writeBinary(OutputStream out, Mesh mesh)
+        throws IOException
+    {
+        final byte[] block = new byte[BinaryRecord*BinaryBlock];
+        final ByteBuffer buf = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+        {
+            final byte[] name = Version.Long.getBytes(ASCII);
+            buf.put(name,0,Math.min(name.length,BinaryHeader));
+            buf.position(BinaryHeader);
+            buf.putInt(mesh.size());
+
+            out.write(block,0,buf.position());
+            buf.clear();
+        }
+        final float[] normals = mesh.normals;
+        final float[] vertices = mesh.vertices;
+
+        for (int index = 0, count = mesh.size(); index < count; index++){
+
+            for (int cc = 0, ofs = (3*index); cc < 3; cc++){
+
+                buf.putFloat(normals[ofs+cc]);
+            }
+            for (int cc = 0, ofs = (9*index); cc < 9; cc++){
+
+                buf.putFloat(vertices[ofs+cc]);
+            }
+            buf.putShort((short)0);
+
+            if (!buf.hasRemaining()){
+                out.write(block,0,buf.position());
+                buf.clear();
+            }
+        }
+        if (0 < buf.position())
+            out.write(block,0,buf.position());
+
+        out.flush();
+    }
+    /**
+     * Write ASCII STL with coordinates in the shortest decimal form
+     * that reads back to the same float.
+     * 
+     * @see STLWriter
+     */
     public void write(OutputStream out, ST st)
         throws IOException
     {
-        this.write(new PrintWriter(new OutputStreamWriter(out,ASCII)),st);
+        final STLWriter writer = new STLWriter(out);
+
+        writer.solid();
+
+        final Iterable<Face> it = st.iterable(); // type coersion
+
+        for (Face face: it){
+
+            writer.facet(face.n(),face.a(),face.b(),face.c());
+        }
+        writer.endsolid();
     }
     public void write(PrintWriter out, ST st)
         throws IOException
@@ -236,18 +1016,314 @@ public class STL<ST extends Face>
         out.flush();
     }
 
+    public void writeBinary(OutputStream out, ST st)
+        throws IOException
+    {
+        final Iterable<Face> it = st.iterable(); // type coersion
+
+        final byte[] block = new byte[BinaryRecord*BinaryBlock];
+        final ByteBuffer buf = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+        {
+            final byte[] name = Version.Long.getBytes(ASCII);
+            buf.put(name,0,Math.min(name.length,BinaryHeader));
+            buf.position(BinaryHeader);
+            buf.putInt(st.size());
+
+            out.write(block,0,buf.position());
+            buf.clear();
+        }
+        for (Face face: it){
+
+            Put(buf,face.n());
+            Put(buf,face.a());
+            Put(buf,face.b());
+            Put(buf,face.c());
+            buf.putShort((short)0);
+
+            if (!buf.hasRemaining()){
+                out.write(block,0,buf.position());
+                buf.clear();
+            }
+        }
+        if (0 < buf.position())
+            out.write(block,0,buf.position());
+
+        out.flush();
+    }
+
+    /**
+     * @return The buffer begins with the GZIP magic number
+     */
+    protected final static boolean IsGZIP(ByteBuffer buf){
+        final int pos = buf.position();
+        return (2 <= buf.remaining() &&
+                (byte)0x1f == buf.get(pos) &&
+                (byte)0x8b == buf.get(pos+1));
+    }
+    protected final static boolean IsASCII(ByteBuffer buf){
+        final int len = Math.min(Sniff,buf.remaining());
+        final byte[] head = new byte[len];
+        for (int cc = 0, pos = buf.position(); cc < len; cc++){
+            head[cc] = buf.get(pos+cc);
+        }
+        return IsASCII(head,len);
+    }
+    /**
+     * Binary STL begins with an arbitrary header, while ASCII STL
+     * begins with "solid" and continues in text.  Some binary
+     * writers begin their header with "solid", so the head is ASCII
+     * only when its text runs to a facet or the end of the solid.
+     * 
+     * @param head Head of the input stream
+     * @param len Length of the head
+     */
+    protected final static boolean IsASCII(byte[] head, int len){
+
+        if (5 <= len &&
+            's' == head[0] && 'o' == head[1] && 'l' == head[2] &&
+            'i' == head[3] && 'd' == head[4])
+        {
+            for (int cc = 5; cc < len; cc++){
+                switch(head[cc]){
+                case '\t':
+                case '\n':
+                case '\r':
+                    break;
+                default:
+                    if (' ' > head[cc] || '~' < head[cc])
+                        return false;
+                    else
+                        break;
+                }
+            }
+            final String text = new String(head,0,len,ASCII);
+
+            return (0 < text.indexOf(Terms.facet.name()) ||
+                    0 < text.indexOf(Terms.endsolid.name()) ||
+                    (len < BinaryHeader+4));
+        }
+        else
+            return false;
+    }
+    /**
+     * @param buf ASCII STL
+     * @param pos Search start position
+     * @param end Search end position
+     * @return Position of the start of the first line at or
+     * following the position that begins with a facet, or the end
+     */
+    protected final static int Boundary(ByteBuffer buf, int pos, int end){
+        final byte[] facet = STLScanner.Names[Terms.facet.ordinal()];
+        final int len = facet.length;
+
+        while (pos < end){
+            /*
+             * Start of line
+             */
+            while (pos < end && '\n' != buf.get(pos))
+                pos += 1;
+
+            pos += 1;
+
+            int tok = pos;
+            while (tok < end && (' ' == buf.get(tok) || '\t' == buf.get(tok)))
+                tok += 1;
+
+            if (tok+len < end){
+                int cc = 0;
+                while (cc < len && facet[cc] == buf.get(tok+cc))
+                    cc += 1;
+
+                if (cc == len && STLScanner.Space(buf.get(tok+len)))
+                    return pos;
+            }
+        }
+        return end;
+    }
+    /**
+     * @return Number of bytes read, less than the requested length
+     * only at the end of the input
+     */
+    protected final static int Fill(InputStream in, byte[] buf, int ofs, int len)
+        throws IOException
+    {
+        int count = 0;
+        while (count < len){
+            final int read = in.read(buf,ofs+count,len-count);
+            if (0 < read)
+                count += read;
+            else
+                break;
+        }
+        return count;
+    }
+    protected final static void Put(ByteBuffer buf, Spacetime v){
+        if (null == v){
+            buf.putFloat(0f);
+            buf.putFloat(0f);
+            buf.putFloat(0f);
+        }
+        else {
+            buf.putFloat(Value(v.x));
+            buf.putFloat(Value(v.y));
+            buf.putFloat(Value(v.z));
+        }
+    }
+    protected final static float Value(Float f){
+        if (null == f)
+            return 0f;
+        else
+            return f.floatValue();
+    }
+
+    /**
+     * Scan the coordinates of ASCII STL without producing a Face
+     * tree, and report time and heap allocation per facet for the
+     * scanning path.  The allocation figure is available on virtual
+     * machines reporting thread allocation.
+     */
+    public final static void Benchmark(File file, int iterations, PrintStream out)
+        throws IOException
+    {
+        final ByteBuffer map;
+        {
+            final FileInputStream in = new FileInputStream(file);
+            try {
+                final FileChannel channel = in.getChannel();
+                map = channel.map(FileChannel.MapMode.READ_ONLY,0L,channel.size());
+            }
+            finally {
+                in.close();
+            }
+        }
+        final java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+        final com.sun.management.ThreadMXBean alloc;
+        if (threads instanceof com.sun.management.ThreadMXBean)
+            alloc = (com.sun.management.ThreadMXBean)threads;
+        else
+            alloc = null;
+
+        final long thread = Thread.currentThread().getId();
+
+        final float[] facet = new float[12];
+        final float[] check = new float[1];
+        final Visitor v = new Visitor(){
+                public void facet(long index, float[] facet){
+                    check[0] += facet[11];
+                }
+            };
+        long facets = 0L;
+        /*
+         * Warm up
+         */
+        for (int cc = 0; cc < iterations; cc++){
+            facets = Scan(new STLScanner(map),facet,v);
+        }
+        final long a0 = (null != alloc)?(alloc.getThreadAllocatedBytes(thread)):(0L);
+        final long t0 = System.nanoTime();
+
+        for (int cc = 0; cc < iterations; cc++){
+            facets = Scan(new STLScanner(map),facet,v);
+        }
+        final long t1 = System.nanoTime();
+        final long a1 = (null != alloc)?(alloc.getThreadAllocatedBytes(thread)):(0L);
+
+        final double total = ((double)facets*iterations);
+
+        out.printf("scan %d facets x %d iterations (%g)%n",facets,iterations,check[0]);
+        out.printf("scan %.1f ns/facet%n",((t1-t0)/total));
+        if (null != alloc)
+            out.printf("scan %.4f bytes/facet, %d bytes per iteration%n",((a1-a0)/total),((a1-a0)/iterations));
+    }
+    /**
+     * @param scan ASCII STL
+     * @param facet Facet coordinates buffer
+     * @param v Facet consumer
+     * @return Number of facets
+     */
+    protected final static long Scan(STLScanner scan, float[] facet, Visitor v){
+        long count = 0L;
+        int fv = 0;
+        Terms term;
+        while (null != (term = scan.term())){
+            switch(term){
+            case solid:
+                scan.line();
+                break;
+            case normal:
+                facet[0] = scan.number();
+                facet[1] = scan.number();
+                facet[2] = scan.number();
+                fv = 3;
+                break;
+            case vertex:
+                if (3 <= fv && 12 > fv){
+                    facet[fv++] = scan.number();
+                    facet[fv++] = scan.number();
+                    facet[fv++] = scan.number();
+                    break;
+                }
+                else
+                    throw new IllegalStateException(String.format("line %d: facet vertices",scan.getLineNumber()));
+            case endfacet:
+                if (12 == fv){
+                    v.facet(count++,facet);
+                    fv = 0;
+                    break;
+                }
+                else
+                    throw new IllegalStateException(String.format("line %d: facet vertices",scan.getLineNumber()));
+            case endsolid:
+                return count;
+            default:
+                break;
+            }
+        }
+        return count;
+    }
+    /**
+     * @param buf Little endian records at position
+     * @param records Number of records to read
+     * @param index Facet number of the first record
+     * @param facet Facet coordinates buffer
+     * @param v Facet consumer
+     * @return Facet number following the last record
+     */
+    protected final static long Scan(ByteBuffer buf, int records, long index, float[] facet, Visitor v){
+
+        for (int rec = 0; rec < records; rec++){
+
+            for (int cc = 0; cc < 12; cc++){
+
+                facet[cc] = buf.getFloat();
+            }
+            buf.getShort();
+
+            v.facet(index++,facet);
+        }
+        return index;
+    }
+
     public enum Command {
-        read, write;
+        read, parallel, weld, write, binary, save, load, scan;
     }
     private final static void usage(PrintStream out){
         out.println("Usage");
         out.println();
-        out.println("    STL (read file)* (write file)* ");
+        out.println("    STL (read file)* (parallel file)* (weld resolution)* (write file)* (binary file)* (save file)* (load file)* (scan file)* ");
         out.println();
         out.println("Description");
         out.println();
         out.println("    Test by running any sequence of reading and");
-        out.println("    writing files.");
+        out.println("    writing files.  Read detects ASCII or binary");
+        out.println("    STL, and GZIP compressed STL.  Parallel reads");
+        out.println("    ASCII STL on all cores, weld merges coincident");
+        out.println("    vertices at the cells per unit resolution and");
+        out.println("    reports the pool size, write produces ASCII");
+        out.println("    STL, and binary produces binary STL.  Save and");
+        out.println("    load write and read a binary snapshot of the");
+        out.println("    faces and their indexes.  Scan reports the time");
+        out.println("    and allocation per facet scanning ASCII STL.");
         out.println();
         System.exit(1);
     }
@@ -270,13 +1346,7 @@ public class STL<ST extends Face>
 
                                 System.err.printf("read %s%n",fin.getPath());
 
-                                final InputStream in = new FileInputStream(fin);
-                                try {
-                                    st = stl.read(in);
-                                }
-                                finally {
-                                    in.close();
-                                }
+                                st = stl.read(fin);
                             }
                             else {
                                 usage(System.err);
@@ -303,6 +1373,102 @@ public class STL<ST extends Face>
                                 usage(System.err);
                             }
                             break;
+
+                        case parallel:
+                            arg += 1;
+                            if (arg < argc){
+                                File fin = new File(args[arg]);
+
+                                System.err.printf("parallel %s%n",fin.getPath());
+
+                                final ForkJoinPool pool = new ForkJoinPool();
+                                try {
+                                    st = stl.read(fin,pool);
+                                }
+                                finally {
+                                    pool.shutdown();
+                                }
+                            }
+                            else {
+                                usage(System.err);
+                            }
+                            break;
+
+                        case weld:
+                            arg += 1;
+                            if (arg < argc){
+                                final Weld weld = new Weld(Float.parseFloat(args[arg]));
+
+                                weld.weld(st);
+
+                                System.err.printf("weld %d vertices in %d facets%n",weld.points(),weld.size());
+                            }
+                            else {
+                                usage(System.err);
+                            }
+                            break;
+
+                        case save:
+                            arg += 1;
+                            if (arg < argc){
+                                File fout = new File(args[arg]);
+
+                                System.err.printf("save %s%n",fout.getPath());
+
+                                new Snapshot().write(fout,st);
+                            }
+                            else {
+                                usage(System.err);
+                            }
+                            break;
+
+                        case load:
+                            arg += 1;
+                            if (arg < argc){
+                                File fin = new File(args[arg]);
+
+                                System.err.printf("load %s%n",fin.getPath());
+
+                                st = new Snapshot().read(fin);
+                            }
+                            else {
+                                usage(System.err);
+                            }
+                            break;
+
+                        case scan:
+                            arg += 1;
+                            if (arg < argc){
+                                File fin = new File(args[arg]);
+
+                                System.err.printf("scan %s%n",fin.getPath());
+
+                                Benchmark(fin,20,System.out);
+                            }
+                            else {
+                                usage(System.err);
+                            }
+                            break;
+
+                        case binary:
+                            arg += 1;
+                            if (arg < argc){
+                                File fout = new File(args[arg]);
+
+                                System.err.printf("binary %s%n",fout.getPath());
+
+                                final OutputStream out = new BufferedOutputStream(new FileOutputStream(fout));
+                                try {
+                                    stl.writeBinary(out,st);
+                                }
+                                finally {
+                                    out.close();
+                                }
+                            }
+                            else {
+                                usage(System.err);
+                            }
+                            break;
                         }
                     }
                     catch (RuntimeException exc){
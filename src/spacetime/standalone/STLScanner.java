@@ -0,0 +1,225 @@
+/*
+ * Spacetime Standalone
+ * Copyright (C) 2013, John Pritchard.
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package spacetime.standalone;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Scan ASCII STL in place from a byte buffer, typically a mapped
+ * file.  Keywords and numbers are matched with absolute reads of the
+ * buffer, without decoding characters or producing strings.
+ *
+ * @see STL
+ */
+public class STLScanner
+    extends Object
+{
+    protected final static STL.Terms[] Terms = STL.Terms.values();
+
+    protected final static byte[][] Names = new byte[Terms.length][];
+    static {
+        for (STL.Terms term : Terms){
+            Names[term.ordinal()] = term.name().getBytes(STL.ASCII);
+        }
+    }
+
+    protected final ByteBuffer buf;
+
+    protected final Decimal decimal = new Decimal();
+
+    protected final int end;
+
+    protected int pos;
+    /**
+     * Line number at the current position, from one
+     */
+    protected int line = 1;
+
+
+    public STLScanner(ByteBuffer buf){
+        super();
+        if (null != buf){
+            this.buf = buf;
+            this.pos = buf.position();
+            this.end = buf.limit();
+        }
+        else
+            throw new IllegalArgumentException();
+    }
+
+
+    public final int getLineNumber(){
+        return this.line;
+    }
+    /**
+     * @return Next keyword, or null at the end of the buffer
+     */
+    public STL.Terms term(){
+        final ByteBuffer buf = this.buf;
+        final int end = this.end;
+
+        int pos = this.space();
+        if (pos < end){
+            int len = 0;
+            while (pos+len < end && !Space(buf.get(pos+len)))
+                len += 1;
+
+            for (int tc = 0, tz = Terms.length; tc < tz; tc++){
+                final byte[] name = Names[tc];
+                if (len == name.length){
+                    int cc = 0;
+                    while (cc < len && name[cc] == buf.get(pos+cc))
+                        cc += 1;
+
+                    if (cc == len){
+                        this.pos = (pos+len);
+                        return Terms[tc];
+                    }
+                }
+            }
+            throw new IllegalStateException(String.format("line %d: unrecognized term",this.line));
+        }
+        else
+            return null;
+    }
+    /**
+     * Decimal number in sign, integer, fraction, and exponent form.
+     * 
+     * @see Decimal
+     */
+    public float number(){
+        final ByteBuffer buf = this.buf;
+        final int end = this.end;
+
+        final int start = this.space();
+
+        final float value;
+        try {
+            value = this.decimal.scan(buf,start,end);
+        }
+        catch (NumberFormatException exc){
+            throw new NumberFormatException(String.format("line %d: %s",this.line,exc.getMessage()));
+        }
+        final int pos = this.decimal.end;
+
+        if (pos < end && !Space(buf.get(pos)))
+            throw new NumberFormatException(String.format("line %d: malformed number",this.line));
+        else {
+            this.pos = pos;
+
+            return value;
+        }
+    }
+    /**
+     * Skip to the end of the current line, as for the solid name.
+     */
+    public void line(){
+        final ByteBuffer buf = this.buf;
+        final int end = this.end;
+        int pos = this.pos;
+        while (pos < end && '\n' != buf.get(pos))
+            pos += 1;
+
+        this.pos = pos;
+    }
+    /**
+     * Skip white space, counting lines.
+     * @return Current position
+     */
+    protected int space(){
+        final ByteBuffer buf = this.buf;
+        final int end = this.end;
+        int pos = this.pos;
+        while (pos < end){
+            final byte ch = buf.get(pos);
+            if ('\n' == ch)
+                this.line += 1;
+            else if (!Space(ch))
+                break;
+
+            pos += 1;
+        }
+        return (this.pos = pos);
+    }
+
+    /**
+     * @param src Line
+     * @param start Token start position
+     * @param end Token end position, exclusive
+     * @return Keyword, or null
+     */
+    public final static STL.Terms Term(CharSequence src, int start, int end){
+        final int len = (end-start);
+
+        for (int tc = 0, tz = Terms.length; tc < tz; tc++){
+            final byte[] name = Names[tc];
+            if (len == name.length){
+                int cc = 0;
+                while (cc < len && name[cc] == src.charAt(start+cc))
+                    cc += 1;
+
+                if (cc == len)
+                    return Terms[tc];
+            }
+        }
+        return null;
+    }
+    /**
+     * @return Position of the first white space character at or
+     * following the position, or the end
+     */
+    public final static int Token(CharSequence src, int pos, int end){
+        while (pos < end && !Space(src.charAt(pos)))
+            pos += 1;
+        return pos;
+    }
+    /**
+     * @return Position of the first non white space character at or
+     * following the position, or the end
+     */
+    public final static int Space(CharSequence src, int pos, int end){
+        while (pos < end && Space(src.charAt(pos)))
+            pos += 1;
+        return pos;
+    }
+    protected final static boolean Space(char ch){
+        switch(ch){
+        case ' ':
+        case '\t':
+        case '\n':
+        case '\r':
+        case '\f':
+            return true;
+        default:
+            return false;
+        }
+    }
+    protected final static boolean Space(byte ch){
+        switch(ch){
+        case ' ':
+        case '\t':
+        case '\n':
+        case '\r':
+        case '\f':
+            return true;
+        default:
+            return false;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Spacetime Standalone
+ * Copyright (C) 2013, John Pritchard.
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package spacetime.standalone;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Write ASCII STL into a reused byte buffer, and from the buffer to
+ * the output stream in large blocks.  Coordinates are written in the
+ * shortest decimal form that reads back to the same float.
+ *
+ * <p> As a {@link STL.Visitor} the writer re-emits facets streamed
+ * from the STL scan methods.  Visitor methods throw {@link
+ * java.lang.IllegalStateException} for an I/O exception of the
+ * output stream. </p>
+ *
+ * @see Decimal#Format(float,byte[],int)
+ */
+public class STLWriter
+    extends Object
+    implements STL.Visitor
+{
+    protected final static byte[] Solid = Bytes("solid");
+    protected final static byte[] Facet = Bytes("  facet normal ");
+    protected final static byte[] Outer = Bytes("    outer loop\n");
+    protected final static byte[] Vertex = Bytes("      vertex ");
+    protected final static byte[] Endloop = Bytes("    endloop\n");
+    protected final static byte[] Endfacet = Bytes("  endfacet\n");
+    protected final static byte[] Endsolid = Bytes("endsolid");
+    /**
+     * Buffer capacity
+     */
+    protected final static int Block = (1<<16);
+    /**
+     * Buffer space sufficient for one facet
+     */
+    protected final static int Record = 512;
+
+
+    protected final OutputStream out;
+
+    protected final byte[] buf = new byte[Block];
+
+    protected int len;
+
+
+    public STLWriter(OutputStream out){
+        super();
+        if (null != out)
+            this.out = out;
+        else
+            throw new IllegalArgumentException();
+    }
+
+
+    public void solid()
+        throws IOException
+    {
+        this.write(Solid);
+        this.buf[this.len++] = '\n';
+    }
+    /**
+     * @param normal Face normal, or null
+     * @param a First vertex, or null
+     * @param b Second vertex, or null
+     * @param c Third vertex, or null
+     */
+    public void facet(Spacetime normal, Spacetime a, Spacetime b, Spacetime c)
+        throws IOException
+    {
+        this.reserve();
+
+        this.write(Facet);
+        this.write(normal);
+        this.write(Outer);
+        if (null != a){
+            this.write(Vertex);
+            this.write(a);
+        }
+        if (null != b){
+            this.write(Vertex);
+            this.write(b);
+        }
+        if (null != c){
+            this.write(Vertex);
+            this.write(c);
+        }
+        this.write(Endloop);
+        this.write(Endfacet);
+    }
+    /**
+     * @param facet Normal, first, second, and third vertex
+     * coordinates as twelve X, Y, Z values
+     */
+    public void facet(float[] facet)
+        throws IOException
+    {
+        this.reserve();
+
+        this.write(Facet);
+        this.write(facet,0);
+        this.write(Outer);
+        this.write(Vertex);
+        this.write(facet,3);
+        this.write(Vertex);
+        this.write(facet,6);
+        this.write(Vertex);
+        this.write(facet,9);
+        this.write(Endloop);
+        this.write(Endfacet);
+    }
+    public void facet(long index, float[] facet){
+        try {
+            this.facet(facet);
+        }
+        catch (IOException exc){
+            throw new IllegalStateException(exc);
+        }
+    }
+    /**
+     * Close the solid and flush the buffer and output stream.
+     */
+    public void endsolid()
+        throws IOException
+    {
+        this.reserve();
+        this.write(Endsolid);
+        this.buf[this.len++] = '\n';
+        this.flush();
+    }
+    public void flush()
+        throws IOException
+    {
+        if (0 < this.len){
+            this.out.write(this.buf,0,this.len);
+            this.len = 0;
+        }
+        this.out.flush();
+    }
+
+    protected void reserve()
+        throws IOException
+    {
+        if (Record > (Block-this.len)){
+            this.out.write(this.buf,0,this.len);
+            this.len = 0;
+        }
+    }
+    protected void write(byte[] text){
+        final int len = text.length;
+        System.arraycopy(text,0,this.buf,this.len,len);
+        this.len += len;
+    }
+    protected void write(Spacetime v){
+        if (null == v){
+            this.write(0f,0f,0f);
+        }
+        else {
+            this.write(STL.Value(v.x),STL.Value(v.y),STL.Value(v.z));
+        }
+    }
+    protected void write(float[] facet, int ofs){
+        this.write(facet[ofs],facet[ofs+1],facet[ofs+2]);
+    }
+    protected void write(float x, float y, float z){
+        final byte[] buf = this.buf;
+        int len = this.len;
+
+        len = Decimal.Format(x,buf,len);
+        buf[len++] = ' ';
+        len = Decimal.Format(y,buf,len);
+        buf[len++] = ' ';
+        len = Decimal.Format(z,buf,len);
+        buf[len++] = '\n';
+
+        this.len = len;
+    }
+
+    protected final static byte[] Bytes(String text){
+        return text.getBytes(STL.ASCII);
+    }
+}
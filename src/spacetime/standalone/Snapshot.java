@@ -0,0 +1,479 @@
+/*
+ * Spacetime Standalone
+ * Copyright (C) 2013, John Pritchard.
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package spacetime.standalone;
+
+import lxl.Index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Versioned binary snapshot of a {@link Spacetime} tree, including
+ * the {@link Face} schema.  A snapshot stores coordinates, bounds and
+ * motion, resolution, tree structure, and the entries of the built
+ * XYZT and runtime key indexes, so that reloading a tree from a
+ * mapped file neither parses text nor quantizes and re-indexes
+ * coordinates.
+ *
+ * <pre>
+ * snapshot  magic:int version:int node
+ * node      TagNull | TagRef id:int | tag:byte ordinates resolution:float
+ *           scheme:byte bounds motion [facex:byte normal:node] count:int node*
+ *           stx rtx
+ * ordinates mask:int float*            (non null X, Y, Z, T)
+ * stx       -1 | count:int (x:int y:int z:int t:int index:int)*
+ * rtx       -1 | count:int (type:byte key index:int)*
+ * </pre>
+ *
+ * <p> The key scheme is present from version two.  Node identifiers are assigned in depth first order, so that a
+ * node shared by more than one parent, as a welded vertex, is stored
+ * once and referenced thereafter.  Runtime keys are stored for the
+ * string, integer, long, float, double and {@link Key} types. </p>
+ *
+ * <p> Nodes are restored as Spacetime, Face, Face Normal and Face
+ * Vertex objects by the create methods, which an application
+ * overrides to restore subclasses. </p>
+ *
+ * @see Weld
+ */
+public class Snapshot
+    extends Object
+{
+    public final static int Magic = 0x53545350;
+
+    public final static int Version = 2;
+
+    protected final static Charset UTF8 = Charset.forName("UTF-8");
+    /**
+     * Node tags
+     */
+    protected final static byte TagNull = 0, TagRef = 1, TagNode = 2, TagFace = 3, TagNormal = 4, TagVertex = 5;
+    /**
+     * Runtime key types
+     */
+    protected final static byte KeyString = 1, KeyInteger = 2, KeyLong = 3, KeyFloat = 4, KeyDouble = 5, KeyKey = 6;
+
+    protected final static Face.FaceIndex[] FaceIndex = Face.FaceIndex.values();
+
+    protected final static Key.Scheme[] Scheme = Key.Scheme.values();
+
+
+    public Snapshot(){
+        super();
+    }
+
+
+    public Spacetime create(){
+        return new Spacetime();
+    }
+    public Face createFace(){
+        return new Face();
+    }
+    /**
+     * @param face Enclosing face
+     */
+    public Spacetime createNormal(Face face){
+        return face.createNormal();
+    }
+    /**
+     * @param face Enclosing face
+     */
+    public Spacetime createVertex(Face face){
+        return face.createVertex();
+    }
+    /**
+     * Read a snapshot from a mapped file.
+     */
+    public <R extends Spacetime> R read(File file)
+        throws IOException
+    {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            final long size = channel.size();
+            if (Integer.MAX_VALUE < size)
+                throw new IllegalArgumentException(String.format("%s: snapshot length %d",file.getPath(),size));
+            else {
+                final MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,0L,size);
+
+                return this.read(map);
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+    /**
+     * Read a snapshot from the position of the buffer.
+     */
+    public <R extends Spacetime> R read(ByteBuffer buf)
+        throws IOException
+    {
+        if (4 <= buf.remaining() && Magic == buf.getInt()){
+            final int version = buf.getInt();
+            if (0 < version && Version >= version){
+
+                final java.util.ArrayList<Spacetime> nodes = new java.util.ArrayList<Spacetime>();
+
+                return (R)this.read(buf,version,nodes,null);
+            }
+            else
+                throw new IllegalStateException(String.format("unsupported snapshot version %d",version));
+        }
+        else
+            throw new IllegalStateException("snapshot not found");
+    }
+    /**
+     * Write a snapshot to a file.
+     */
+    public void write(File file, Spacetime root)
+        throws IOException
+    {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            this.write(out,root);
+        }
+        finally {
+            out.close();
+        }
+    }
+    /**
+     * Write a snapshot to the stream, and flush the stream.
+     */
+    public void write(OutputStream out, Spacetime root)
+        throws IOException
+    {
+        final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out,(1<<16)));
+
+        data.writeInt(Magic);
+        data.writeInt(Version);
+
+        this.write(data,root,new java.util.IdentityHashMap<Spacetime,Integer>());
+
+        data.flush();
+    }
+
+    protected void write(DataOutputStream out, Spacetime node, java.util.IdentityHashMap<Spacetime,Integer> ids)
+        throws IOException
+    {
+        if (null == node)
+            out.writeByte(TagNull);
+        else {
+            final Integer id = ids.get(node);
+            if (null != id){
+                out.writeByte(TagRef);
+                out.writeInt(id.intValue());
+            }
+            else {
+                ids.put(node,ids.size());
+
+                out.writeByte(Tag(node));
+
+                Write(out,node.x,node.y,node.z,node.t);
+
+                out.writeFloat(node.resolution);
+
+                out.writeByte(node.scheme.ordinal());
+
+                final SpacetimeBounds bounds = node.getSpacetimeBounds();
+                if (null == bounds)
+                    out.writeByte(0);
+                else {
+                    out.writeByte(1);
+                    Write(out,bounds.x0,bounds.x1,bounds.y0,bounds.y1,bounds.z0,bounds.z1,bounds.t0,bounds.t1);
+                }
+
+                final SpacetimeMotion motion = node.motion;
+                if (null == motion)
+                    out.writeByte(0);
+                else {
+                    out.writeByte(1);
+                    Write(out,motion.t,motion.dx1,motion.dx2,motion.dx3,motion.dy1,motion.dy2,motion.dy3,motion.dz1,motion.dz2,motion.dz3);
+                }
+
+                if (node instanceof Face){
+                    final Face face = (Face)node;
+
+                    out.writeByte(face.facex.ordinal());
+
+                    this.write(out,face.n,ids);
+                }
+
+                final int count = node.size();
+                out.writeInt(count);
+                for (int cc = 0; cc < count; cc++){
+
+                    this.write(out,(Spacetime)node.get(cc),ids);
+                }
+
+                final SpatialHash stx = node.stx;
+                if (null == stx)
+                    out.writeInt(-1);
+                else {
+                    out.writeInt(stx.size());
+                    for (int slot = 0, capacity = stx.capacity(); slot < capacity; slot++){
+                        final int value = stx.value(slot);
+                        if (SpatialHash.Empty != value){
+                            out.writeInt(stx.key(slot,0));
+                            out.writeInt(stx.key(slot,1));
+                            out.writeInt(stx.key(slot,2));
+                            out.writeInt(stx.key(slot,3));
+                            out.writeInt(value);
+                        }
+                    }
+                }
+
+                final Index rtx = node.rtx;
+                if (null == rtx)
+                    out.writeInt(-1);
+                else {
+                    out.writeInt(rtx.size());
+                    for (Object key: rtx.keys()){
+                        Write(out,(Comparable)key);
+                        out.writeInt(rtx.get((Comparable)key));
+                    }
+                }
+            }
+        }
+    }
+    /**
+     * @param parent Enclosing face for normal and vertex nodes, or null
+     */
+    protected Spacetime read(ByteBuffer buf, int version, java.util.ArrayList<Spacetime> nodes, Face parent)
+        throws IOException
+    {
+        final byte tag = buf.get();
+        final Spacetime node;
+        switch(tag){
+        case TagNull:
+            return null;
+        case TagRef:
+            return nodes.get(buf.getInt());
+        case TagNode:
+            node = this.create();
+            break;
+        case TagFace:
+            node = this.createFace();
+            break;
+        case TagNormal:
+            node = this.createNormal((null != parent)?(parent):(this.createFace()));
+            break;
+        case TagVertex:
+            node = this.createVertex((null != parent)?(parent):(this.createFace()));
+            break;
+        default:
+            throw new IllegalStateException(String.format("unrecognized snapshot tag %d at %d",tag,(buf.position()-1)));
+        }
+        nodes.add(node);
+
+        Float[] ordinates = Read(buf,4);
+        node.x = ordinates[0];
+        node.y = ordinates[1];
+        node.z = ordinates[2];
+        node.t = ordinates[3];
+
+        node.resolution = buf.getFloat();
+
+        if (1 < version)
+            node.scheme = Scheme[buf.get()];
+
+        if (0 != buf.get()){
+            final SpacetimeBounds bounds = new SpacetimeBounds();
+            ordinates = Read(buf,8);
+            bounds.x0 = ordinates[0];
+            bounds.x1 = ordinates[1];
+            bounds.y0 = ordinates[2];
+            bounds.y1 = ordinates[3];
+            bounds.z0 = ordinates[4];
+            bounds.z1 = ordinates[5];
+            bounds.t0 = ordinates[6];
+            bounds.t1 = ordinates[7];
+            node.bounds = bounds;
+        }
+
+        if (0 != buf.get()){
+            final SpacetimeMotion motion = new SpacetimeMotion();
+            ordinates = Read(buf,10);
+            motion.t = ordinates[0];
+            motion.dx1 = ordinates[1];
+            motion.dx2 = ordinates[2];
+            motion.dx3 = ordinates[3];
+            motion.dy1 = ordinates[4];
+            motion.dy2 = ordinates[5];
+            motion.dy3 = ordinates[6];
+            motion.dz1 = ordinates[7];
+            motion.dz2 = ordinates[8];
+            motion.dz3 = ordinates[9];
+            node.motion = motion;
+        }
+
+        final Face face = (node instanceof Face)?((Face)node):(null);
+        if (null != face){
+
+            face.facex = FaceIndex[buf.get()];
+
+            face.n = this.read(buf,version,nodes,face);
+        }
+
+        final int count = buf.getInt();
+        if (0 < count){
+            final Face enclosing = (null != face)?(face):(parent);
+
+            node.ensure(count-1);
+
+            for (int cc = 0; cc < count; cc++){
+
+                node.set(cc,this.read(buf,version,nodes,enclosing));
+            }
+        }
+        /*
+         * Indexes sized for their content are filled without reindexing
+         */
+        int entries = buf.getInt();
+        if (-1 < entries){
+            final SpatialHash stx = new SpatialHash(node.resolution,entries,node.scheme);
+            while (0 < entries){
+
+                stx.put(buf.getInt(),buf.getInt(),buf.getInt(),buf.getInt(),buf.getInt());
+
+                entries -= 1;
+            }
+            node.stx = stx;
+        }
+
+        entries = buf.getInt();
+        if (-1 < entries){
+            final Index rtx = new Index(Math.max(1,(entries>>1)));
+            while (0 < entries){
+                final Comparable key = Read(buf);
+
+                rtx.put(key,buf.getInt());
+
+                entries -= 1;
+            }
+            node.rtx = rtx;
+        }
+        return node;
+    }
+
+    protected final static byte Tag(Spacetime node){
+        if (node instanceof Face.Normal)
+            return TagNormal;
+        else if (node instanceof Face.Vertex)
+            return TagVertex;
+        else if (node instanceof Face)
+            return TagFace;
+        else
+            return TagNode;
+    }
+    /**
+     * Write a mask of the non null values, followed by the non null
+     * values.
+     */
+    protected final static void Write(DataOutputStream out, Float... values)
+        throws IOException
+    {
+        int mask = 0;
+        for (int cc = 0, cz = values.length; cc < cz; cc++){
+            if (null != values[cc])
+                mask |= (1<<cc);
+        }
+        out.writeInt(mask);
+
+        for (Float value: values){
+            if (null != value)
+                out.writeFloat(value.floatValue());
+        }
+    }
+    protected final static Float[] Read(ByteBuffer buf, int count){
+        final Float[] values = new Float[count];
+        final int mask = buf.getInt();
+        for (int cc = 0; cc < count; cc++){
+            if (0 != (mask & (1<<cc)))
+                values[cc] = buf.getFloat();
+        }
+        return values;
+    }
+    protected final static void Write(DataOutputStream out, Comparable key)
+        throws IOException
+    {
+        if (key instanceof String){
+            final byte[] bytes = ((String)key).getBytes(UTF8);
+            out.writeByte(KeyString);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        else if (key instanceof Integer){
+            out.writeByte(KeyInteger);
+            out.writeInt(((Integer)key).intValue());
+        }
+        else if (key instanceof Long){
+            out.writeByte(KeyLong);
+            out.writeLong(((Long)key).longValue());
+        }
+        else if (key instanceof Float){
+            out.writeByte(KeyFloat);
+            out.writeFloat(((Float)key).floatValue());
+        }
+        else if (key instanceof Double){
+            out.writeByte(KeyDouble);
+            out.writeDouble(((Double)key).doubleValue());
+        }
+        else if (key instanceof Key){
+            final Key k = (Key)key;
+            out.writeByte(KeyKey);
+            out.writeInt(k.x);
+            out.writeInt(k.y);
+            out.writeInt(k.z);
+            out.writeInt(k.t);
+        }
+        else
+            throw new IllegalArgumentException(String.format("unsupported runtime key type %s",key.getClass().getName()));
+    }
+    protected final static Comparable Read(ByteBuffer buf){
+        final byte type = buf.get();
+        switch(type){
+        case KeyString:
+            final byte[] bytes = new byte[buf.getInt()];
+            buf.get(bytes);
+            return new String(bytes,UTF8);
+        case KeyInteger:
+            return buf.getInt();
+        case KeyLong:
+            return buf.getLong();
+        case KeyFloat:
+            return buf.getFloat();
+        case KeyDouble:
+            return buf.getDouble();
+        case KeyKey:
+            return new Key(buf.getInt(),buf.getInt(),buf.getInt(),buf.getInt());
+        default:
+            throw new IllegalStateException(String.format("unrecognized runtime key type %d at %d",type,(buf.position()-1)));
+        }
+    }
+}
@@ -19,6 +19,7 @@
 package spacetime.standalone;
 
 import lxl.Index;
+import lxl.Primes;
 
 /**
  * In - memory properties of the space time object, and a collection
@@ -33,10 +34,42 @@ public class Spacetime<E extends Enum<E>>
                spacetime.SpacetimeFrame<java.lang.Float>,
                spacetime.Spacetime<java.lang.Float,Spacetime<E>>
 {
+    /**
+     * Query result consumer
+     */
+    public interface Visitor<R extends Spacetime> {
+        /**
+         * @param index List index of the child
+         * @param child Child in the query
+         */
+        public void visit(int index, R child);
+    }
+    /**
+     * Index load threshold
+     */
+    protected final static float Load = 3.0f;
+    /**
+     * Order of runtime keys, by class name and then natural order
+     * within a class
+     */
+    protected final static java.util.Comparator<Comparable> KeyOrder = new java.util.Comparator<Comparable>(){
+        public int compare(Comparable a, Comparable b){
+            final Class ca = a.getClass(), cb = b.getClass();
+            if (ca == cb)
+                return a.compareTo(b);
+            else
+                return ca.getName().compareTo(cb.getName());
+        }
+    };
+
+
     protected Spacetime frame;
 
     protected Float x, y, z, t;
 
+    /**
+     * Extent of the children, maintained as children are added
+     */
     protected SpacetimeBounds bounds;
 
     protected SpacetimeMotion motion;
@@ -44,9 +77,57 @@ public class Spacetime<E extends Enum<E>>
      * Multiply ordinals by resolution for index
      */
     protected float resolution = 1.0f;
+    /**
+     * Key order of the space time index
+     */
+    protected Key.Scheme scheme = Key.Scheme.Lexical;
 
-    protected transient volatile Index<Key> stx;
+    protected transient volatile SpatialHash stx;
     protected transient volatile Index rtx;
+    /**
+     * Runtime keys in key order, built on demand and maintained as
+     * keys are added
+     */
+    protected transient volatile java.util.TreeMap<Comparable,Integer> otx;
+    /**
+     * Range query structure, built on demand
+     */
+    protected transient volatile Grid grid;
+    /**
+     * Multiple resolution query structure, built on demand
+     */
+    protected transient volatile Hierarchy hierarchy;
+    /**
+     * Temporal query structure, built on demand
+     */
+    protected transient volatile Timeline timeline;
+    /**
+     * Packed motion of the children, built on demand
+     */
+    protected transient volatile Integrator integrator;
+    /**
+     * Broad phase collision pairs, updated on demand
+     */
+    protected transient volatile Collider collider;
+    /**
+     * Count of indexed list updates
+     */
+    protected transient int modified;
+    /**
+     * Bounds require recompute, following the removal or replacement
+     * of a child
+     */
+    protected transient boolean rebound;
+    /**
+     * The list, indexes and bounds are shared with a copy on write
+     * clone, and are copied before the first update
+     */
+    protected transient boolean shared;
+    /**
+     * Children replaced by their copy on write clones since sharing,
+     * or null for children not shared
+     */
+    protected transient java.util.BitSet edited;
 
     
 
@@ -95,19 +176,94 @@ public class Spacetime<E extends Enum<E>>
     public Float getSpacetimeT(){
         return this.t;
     }
+    /**
+     * @return Extent of the coordinates and bounds of the children,
+     * excluding null ordinates, or null for none
+     */
     public SpacetimeBounds getSpacetimeBounds(){
+        if (this.rebound)
+            this.rebound();
+
         return this.bounds;
     }
     public SpacetimeMotion getSpacetimeMotion(){
         return this.motion;
     }
+    public void setSpacetimeMotion(SpacetimeMotion motion){
+        this.motion = motion;
+    }
+    public final Key.Scheme getKeyScheme(){
+        return this.scheme;
+    }
+    /**
+     * Select the key order of the space time index.  An existing
+     * index is copied.
+     */
+    public void setKeyScheme(Key.Scheme scheme){
+        if (null == scheme)
+            throw new IllegalArgumentException();
+        else if (scheme != this.scheme){
+            this.scheme = scheme;
+
+            final SpatialHash stx = this.stx;
+            if (null != stx){
+
+                this.stx = new SpatialHash(stx,scheme);
+            }
+        }
+    }
+    /**
+     * @return Cells of the space time index in the order of the key
+     * scheme
+     */
+    public Key[] keys(){
+        final SpatialHash stx = this.stx;
+        if (null == stx)
+            return new Key[0];
+        else {
+            final Key[] keys = new Key[stx.size()];
+            int cc = 0;
+            for (int slot = 0, capacity = stx.capacity(); slot < capacity; slot++){
+
+                if (SpatialHash.Empty != stx.value(slot)){
+
+                    keys[cc++] = new Key(stx.key(slot,0),stx.key(slot,1),stx.key(slot,2),stx.key(slot,3));
+                }
+            }
+            java.util.Arrays.sort(keys,this.scheme);
+
+            return keys;
+        }
+    }
+    /**
+     * @return Child in the index cell, or null
+     */
+    public <R extends Spacetime<E>> R lookup(Key key){
+
+        final int idx = this.stx().get(key.x,key.y,key.z,key.t);
+
+        return (R)super.get(idx);
+    }
     public void clear(){
+        this.modified += 1;
+
+        if (this.shared){
+            this.shared = false;
+            this.stx = null;
+            this.rtx = null;
+        }
+        this.edited = null;
+        this.otx = null;
+
         if (null != this.stx)
             this.stx.clear();
 
         if (null != this.rtx)
             this.rtx.clear();
 
+        this.bounds = null;
+        this.rebound = false;
+
         super.clear();
     }
     /**
@@ -115,11 +271,16 @@ public class Spacetime<E extends Enum<E>>
      */
     public <R extends Spacetime<E>> R get(Float x, Float y, Float z, Float t){
 
-        final Key key = Key.For(x,y,z,t,this.resolution);
+        final int idx = this.stx().get(x,y,z,t);
 
-        final Index<Key> stx = this.stx();
+        return (R)super.get(idx);
+    }
+    /**
+     * Indexed space time list, without allocation.
+     */
+    public <R extends Spacetime<E>> R lookup(float x, float y, float z, float t){
 
-        final int idx = stx.get(key);
+        final int idx = this.stx().get(x,y,z,t);
 
         return (R)super.get(idx);
     }
@@ -128,22 +289,40 @@ public class Spacetime<E extends Enum<E>>
      */
     public <R extends Spacetime<E>> R put(R p){
 
-        final Key key = Key.For(x,y,z,t,this.resolution);
+        this.write();
 
-        final Index<Key> stx = this.stx();
+        this.modified += 1;
 
-        int idx = stx.get(key);
+        final int idx = this.stx().add(p.x,p.y,p.z,p.t,this.size());
         if (-1 == idx){
-            idx = super.add(p);
-            stx.put(key,idx);
 
-            this.restx();
+            super.add(p);
         }
         else {
             super.ensure(idx);
 
-            super.set(idx,p);
+            this.exclude(super.set(idx,p),p);
         }
+        this.include(p);
+
+        return p;
+    }
+    /**
+     * Indexed space time list, appending to the list without
+     * replacement.  The first child in a cell is indexed.
+     */
+    public <R extends Spacetime<E>> R append(R p){
+
+        this.write();
+
+        this.modified += 1;
+
+        final int idx = super.add(p);
+
+        this.stx().add(p.x,p.y,p.z,p.t,idx);
+
+        this.include(p);
+
         return p;
     }
     /**
@@ -158,9 +337,15 @@ public class Spacetime<E extends Enum<E>>
      */
     public <R extends Spacetime<E>> R put(E en, R p){
 
+        this.write();
+
+        this.modified += 1;
+
         super.ensure(en.ordinal());
 
-        super.set(en.ordinal(),p);
+        this.exclude(super.set(en.ordinal(),p),p);
+
+        this.include(p);
 
         return p;
     }
@@ -180,6 +365,10 @@ public class Spacetime<E extends Enum<E>>
      */
     public <K extends Comparable<K>, R extends Spacetime<E>> R put(K k, R p){
 
+        this.write();
+
+        this.modified += 1;
+
         final Index rtx = this.rtx();
 
         int idx = rtx.get(k);
@@ -187,30 +376,881 @@ public class Spacetime<E extends Enum<E>>
             idx = super.add(p);
             rtx.put(k,idx);
 
+            final java.util.TreeMap<Comparable,Integer> otx = this.otx;
+            if (null != otx)
+                otx.put(k,idx);
+
             this.rertx();
         }
         else {
             super.ensure(idx);
 
-            super.set(idx,p);
+            this.exclude(super.set(idx,p),p);
         }
+        this.include(p);
+
         return p;
     }
+    /**
+     * Indexed space time list, as for {@link #put(Spacetime)} in
+     * order.  The index is sized once for the collection, and the
+     * list grown once for the new cells.
+     */
+    public <R extends Spacetime<E>> void putAll(java.util.Collection<R> list){
+
+        final int count = list.size();
+        if (0 < count){
+            this.write();
+
+            this.modified += 1;
+
+            final int size = this.size();
+
+            final SpatialHash stx = this.stx();
+
+            stx.ensure(stx.size()+count);
+
+            final java.util.ArrayList<R> added = new java.util.ArrayList<R>(count);
+
+            for (R p: list){
+
+                final int idx = stx.add(p.x,p.y,p.z,p.t,(size+added.size()));
+                if (-1 == idx){
+
+                    added.add(p);
+                }
+                else if (idx < size){
+
+                    this.exclude(super.set(idx,p),p);
+
+                    this.include(p);
+                }
+                else
+                    added.set((idx-size),p);
+            }
+
+            final int add = added.size();
+            if (0 < add){
+                super.ensure(size+add-1);
+
+                for (int cc = 0; cc < add; cc++){
+
+                    final R p = added.get(cc);
+
+                    super.set((size+cc),p);
+
+                    this.include(p);
+                }
+            }
+        }
+    }
+    /**
+     * Runtime key list, as for {@link #put(Comparable,Spacetime)} in
+     * the order of the map.  The index is sized once for the map, and
+     * the list grown once for the new keys.
+     */
+    public <K extends Comparable<K>, R extends Spacetime<E>> void putAll(java.util.Map<K,R> map){
+
+        final int count = map.size();
+        if (0 < count){
+            this.write();
+
+            this.modified += 1;
+
+            final int size = this.size();
+
+            Index rtx = this.rtx();
+            {
+                final int buckets = Primes.Ceil((rtx.size()+count)>>1);
+                if (buckets > rtx.size){
+                    rtx = new Index(rtx,buckets);
+                    this.rtx = rtx;
+                }
+            }
+            final java.util.TreeMap<Comparable,Integer> otx = this.otx;
+
+            final java.util.ArrayList<R> added = new java.util.ArrayList<R>(count);
+
+            for (java.util.Map.Entry<K,R> entry: map.entrySet()){
+
+                final K key = entry.getKey();
+                final R p = entry.getValue();
+
+                final int idx = rtx.get(key);
+                if (-1 == idx){
+                    rtx.put(key,(size+added.size()));
+
+                    if (null != otx)
+                        otx.put(key,(size+added.size()));
+
+                    added.add(p);
+                }
+                else if (idx < size){
+
+                    this.exclude(super.set(idx,p),p);
+
+                    this.include(p);
+                }
+                else
+                    added.set((idx-size),p);
+            }
+
+            final int add = added.size();
+            if (0 < add){
+                super.ensure(size+add-1);
+
+                for (int cc = 0; cc < add; cc++){
+
+                    final R p = added.get(cc);
+
+                    super.set((size+cc),p);
+
+                    this.include(p);
+                }
+                this.rertx();
+            }
+        }
+    }
+    /**
+     * Unindexed list, growing the list once for the collection
+     */
+    public <R extends Spacetime<E>> void addAll(java.util.Collection<R> list){
+
+        final int count = list.size();
+        if (0 < count){
+            this.write();
+
+            this.modified += 1;
+
+            int idx = this.size();
+
+            super.ensure(idx+count-1);
+
+            for (R p: list){
+
+                super.set(idx++,p);
+
+                this.include(p);
+            }
+        }
+    }
+    /**
+     * Runtime key list
+     * 
+     * @return Child of the greatest key of the class of the key less
+     * than or equal to the key, or null.  Keys of other classes are
+     * not compared.
+     */
+    public <K extends Comparable<K>, R extends Spacetime<E>> R floor(K k){
+        if (null == k)
+            throw new IllegalArgumentException();
+        else
+            return this.child(k,this.otx().floorEntry(k));
+    }
+    /**
+     * Runtime key list
+     * 
+     * @return Child of the least key of the class of the key greater
+     * than or equal to the key, or null.  Keys of other classes are
+     * not compared.
+     */
+    public <K extends Comparable<K>, R extends Spacetime<E>> R ceiling(K k){
+        if (null == k)
+            throw new IllegalArgumentException();
+        else
+            return this.child(k,this.otx().ceilingEntry(k));
+    }
+    /**
+     * Runtime key list
+     * 
+     * @param from Least key, inclusive
+     * @param to Greatest key, inclusive, of the class of the least
+     * key
+     * @return Keys of the range in key order, as an unmodifiable
+     * snapshot unchanged by later updates
+     * @exception java.lang.IllegalArgumentException Null or mixed
+     * class bounds
+     */
+    public <K extends Comparable<K>> java.util.SortedSet<K> keys(K from, K to){
+
+        if (null == from || null == to || from.getClass() != to.getClass())
+            throw new IllegalArgumentException();
+        else if (0 < KeyOrder.compare(from,to))
+            return java.util.Collections.unmodifiableSortedSet(new java.util.TreeSet<K>());
+        else {
+            final java.util.SortedSet keys = this.otx().navigableKeySet().subSet(from,true,to,true); // erasure of the key type
+
+            return java.util.Collections.unmodifiableSortedSet(new java.util.TreeSet<K>(keys));
+        }
+    }
+    /**
+     * Runtime key list
+     * 
+     * @param from Least key, inclusive
+     * @param to Greatest key, inclusive, of the class of the least
+     * key
+     * @param v Consumer of the children of the range, in key order
+     * @return Number of children in the range
+     * @exception java.lang.IllegalArgumentException Null or mixed
+     * class bounds
+     */
+    public <K extends Comparable<K>, R extends Spacetime<E>> int range(K from, K to, Visitor<R> v){
+        if (null == from || null == to || null == v || from.getClass() != to.getClass())
+            throw new IllegalArgumentException();
+        else if (0 < KeyOrder.compare(from,to))
+            return 0;
+        else
+            return this.visit(this.otx().subMap(from,true,to,true),null,v);
+    }
+    /**
+     * Runtime key list
+     * 
+     * @param prefix Prefix of string keys
+     * @param v Consumer of the children of string keys having the
+     * prefix, in key order
+     * @return Number of children of keys having the prefix
+     */
+    public <R extends Spacetime<E>> int prefix(String prefix, Visitor<R> v){
+        if (null == prefix || null == v)
+            throw new IllegalArgumentException();
+        else
+            return this.visit(this.otx().tailMap(prefix,true),prefix,v);
+    }
+    /**
+     * Range query
+     * 
+     * @param box Two, three or four dimensional bounds, inclusive
+     * @return Children within the bounds, in list order by cell
+     */
+    public <R extends Spacetime<E>> java.util.List<R> query(SpacetimeBounds box){
+
+        final java.util.List<R> list = new java.util.ArrayList<R>();
+
+        this.query(box,new Visitor<R>(){
+                public void visit(int index, R child){
+                    list.add(child);
+                }
+            });
+        return list;
+    }
+    /**
+     * Range query
+     * 
+     * @param box Two, three or four dimensional bounds, inclusive
+     * @param v Consumer of children within the bounds
+     * @return Number of children within the bounds
+     */
+    public <R extends Spacetime<E>> int query(SpacetimeBounds box, Visitor<R> v){
+        if (null == box || null == v)
+            throw new IllegalArgumentException();
+        else
+            return this.grid().query(this,box,v);
+    }
+    /**
+     * Range query over the multiple resolution index, refining only
+     * the occupied cells on the boundary of the box
+     * 
+     * @param box Two, three or four dimensional bounds, inclusive
+     * @return Children within the bounds, in Z-order by cell
+     */
+    public <R extends Spacetime<E>> java.util.List<R> refine(SpacetimeBounds box){
+
+        final java.util.List<R> list = new java.util.ArrayList<R>();
+
+        this.refine(box,new Visitor<R>(){
+                public void visit(int index, R child){
+                    list.add(child);
+                }
+            });
+        return list;
+    }
+    /**
+     * Range query over the multiple resolution index, refining only
+     * the occupied cells on the boundary of the box
+     * 
+     * @param box Two, three or four dimensional bounds, inclusive
+     * @param v Consumer of children within the bounds
+     * @return Number of children within the bounds
+     */
+    public <R extends Spacetime<E>> int refine(SpacetimeBounds box, Visitor<R> v){
+        if (null == box || null == v)
+            throw new IllegalArgumentException();
+        else
+            return this.hierarchy().query(this,box,v);
+    }
+    /**
+     * Time window query over the children having a T ordinate
+     * 
+     * @param t0 Window minimum, inclusive
+     * @param t1 Window maximum, inclusive
+     * @return Children within the window, in time bucket order
+     */
+    public <R extends Spacetime<E>> java.util.List<R> window(float t0, float t1){
+
+        return this.window(t0,t1,null);
+    }
+    /**
+     * Time window query over the children having a T ordinate
+     * 
+     * @param t0 Window minimum, inclusive
+     * @param t1 Window maximum, inclusive
+     * @param box Two or three dimensional bounds, inclusive, or null
+     * for all space
+     * @return Children within the window and bounds, in time bucket
+     * order
+     */
+    public <R extends Spacetime<E>> java.util.List<R> window(float t0, float t1, SpacetimeBounds box){
+
+        final java.util.List<R> list = new java.util.ArrayList<R>();
+
+        this.window(t0,t1,box,new Visitor<R>(){
+                public void visit(int index, R child){
+                    list.add(child);
+                }
+            });
+        return list;
+    }
+    /**
+     * Time window query over the children having a T ordinate
+     * 
+     * @param t0 Window minimum, inclusive
+     * @param t1 Window maximum, inclusive
+     * @param box Two or three dimensional bounds, inclusive, or null
+     * for all space
+     * @param v Consumer of children within the window and bounds
+     * @return Number of children within the window and bounds
+     */
+    public <R extends Spacetime<E>> int window(float t0, float t1, SpacetimeBounds box, Visitor<R> v){
+        if (null == v || t0 != t0 || t1 != t1)
+            throw new IllegalArgumentException();
+        else
+            return this.timeline().window(this,t0,t1,box,v);
+    }
+    /**
+     * Remove the children in time buckets wholly older than the
+     * horizon, compacting the list.  Untimed children are retained.
+     * The indexes are updated to the compacted list indeces, so that
+     * enumerated list positions following an evicted child are not
+     * retained.
+     * 
+     * @param horizon T ordinate
+     * @return Archive of the children removed, in list order, with
+     * their space time and runtime keys, for example to save with
+     * {@link Snapshot}
+     */
+    public Spacetime<E> evict(float horizon){
+
+        final Spacetime<E> archive = new Spacetime<E>(this.x,this.y,this.z,this.t,this.resolution);
+        archive.frame = this.frame;
+        archive.scheme = this.scheme;
+
+        final int[] older = this.timeline().older(horizon);
+        final int count = older.length;
+        if (0 < count){
+            this.write();
+
+            this.modified += 1;
+
+            final Spacetime raw = this; // erasure of the list type
+            final Object[] list = raw.list;
+            final int size = list.length;
+            /*
+             * List index in this container, or the complement of
+             * the list index in the archive
+             */
+            final int[] remap = new int[size];
+            for (int idx: older){
+                remap[idx] = -1;
+            }
+            final Object[] kept = new Object[size-count];
+            final java.util.ArrayList<Spacetime<E>> archived = new java.util.ArrayList<Spacetime<E>>(count);
+            for (int idx = 0, kc = 0; idx < size; idx++){
+                if (-1 == remap[idx]){
+                    remap[idx] = ~archived.size();
+                    archived.add((Spacetime<E>)list[idx]);
+                }
+                else {
+                    remap[idx] = kc;
+                    kept[kc++] = list[idx];
+                }
+            }
+            raw.list = (0 < kept.length)?(kept):(null);
+
+            archive.addAll(archived);
+            /*
+             * Space time index
+             */
+            final SpatialHash stx = this.stx;
+            if (null != stx){
+                final int cells = stx.size();
+                final int[] keys = new int[cells<<2];
+                final int[] values = new int[cells];
+                for (int slot = 0, capacity = stx.capacity(), cc = 0; slot < capacity; slot++){
+                    final int value = stx.value(slot);
+                    if (SpatialHash.Empty != value){
+                        final int k = (cc<<2);
+                        for (int dim = 0; dim < 4; dim++){
+                            keys[k+dim] = stx.key(slot,dim);
+                        }
+                        values[cc++] = value;
+                    }
+                }
+                final SpatialHash atx = archive.stx();
+                for (int cc = 0; cc < cells; cc++){
+                    final int k = (cc<<2);
+                    final int value = values[cc];
+                    if (value < size){
+                        final int idx = remap[value];
+                        if (0 > idx){
+                            stx.remove(keys[k],keys[k+1],keys[k+2],keys[k+3]);
+
+                            atx.add(keys[k],keys[k+1],keys[k+2],keys[k+3],~idx);
+                        }
+                        else if (idx != value)
+                            stx.put(keys[k],keys[k+1],keys[k+2],keys[k+3],idx);
+                    }
+                }
+            }
+            /*
+             * Runtime key index
+             */
+            final Index rtx = this.rtx;
+            if (null != rtx){
+                final Index copier = new Index(rtx.size);
+                final Index atx = archive.rtx();
+                for (Object key: rtx.keys()){
+                    final int value = rtx.get((Comparable)key);
+                    if (-1 < value && value < size){
+                        final int idx = remap[value];
+                        if (0 > idx)
+                            atx.put((Comparable)key,~idx);
+                        else
+                            copier.put((Comparable)key,idx);
+                    }
+                }
+                this.rtx = copier;
+                this.otx = null;
+                archive.rertx();
+            }
+            /*
+             * Copy on write edits
+             */
+            final java.util.BitSet edited = this.edited;
+            if (null != edited){
+                final java.util.BitSet copier = new java.util.BitSet();
+                for (int idx = edited.nextSetBit(0); -1 < idx && idx < size; idx = edited.nextSetBit(idx+1)){
+                    if (-1 < remap[idx])
+                        copier.set(remap[idx]);
+                }
+                this.edited = copier;
+            }
+            this.rebound = true;
+        }
+        return archive;
+    }
+    /**
+     * Nearest neighbour query, by distance in X, Y and Z over
+     * children at any T
+     * 
+     * @return Nearest child, or null for none
+     */
+    public <R extends Spacetime<E>> R nearest(float x, float y, float z){
+
+        final int[] nearest = this.grid().nearest(x,y,z,1);
+        if (0 < nearest.length)
+            return (R)this.get(nearest[0]);
+        else
+            return null;
+    }
+    /**
+     * Nearest neighbour query, by distance in X, Y and Z over
+     * children at any T
+     * 
+     * @param k Number of neighbours
+     * @return Nearest children, nearest first
+     */
+    public <R extends Spacetime<E>> java.util.List<R> nearest(float x, float y, float z, int k){
+
+        final int[] nearest = this.grid().nearest(x,y,z,k);
+
+        final java.util.List<R> list = new java.util.ArrayList<R>(nearest.length);
+        for (int idx: nearest){
+            list.add((R)this.get(idx));
+        }
+        return list;
+    }
+    /**
+     * Nearest neighbour query in parallel
+     * 
+     * @param points Query points as { x, y, z } triples
+     * @param k Number of neighbours
+     * @param pool Fork join pool
+     * @return List indeces of the nearest children, nearest first,
+     * per query point
+     */
+    public int[][] nearest(float[] points, int k, java.util.concurrent.ForkJoinPool pool){
+        if (null == points || 0 != (points.length % 3) || null == pool || 1 > k)
+            throw new IllegalArgumentException();
+        else {
+            final int[][] nearest = new int[points.length/3][];
+
+            pool.invoke(new Grid.Batch(this.grid(),points,k,0f,nearest,0,nearest.length));
+
+            return nearest;
+        }
+    }
+    /**
+     * Radius query, by distance in X, Y and Z over children at any T
+     * 
+     * @param r Radius, inclusive
+     * @return Children within the radius, in list order
+     */
+    public <R extends Spacetime<E>> java.util.List<R> radius(float x, float y, float z, float r){
+
+        final java.util.List<R> list = new java.util.ArrayList<R>();
+
+        this.radius(x,y,z,r,new Visitor<R>(){
+                public void visit(int index, R child){
+                    list.add(child);
+                }
+            });
+        return list;
+    }
+    /**
+     * Radius query, by distance in X, Y and Z over children at any T
+     * 
+     * @param r Radius, inclusive
+     * @param v Consumer of children within the radius, in list order
+     * @return Number of children within the radius
+     */
+    public <R extends Spacetime<E>> int radius(float x, float y, float z, float r, Visitor<R> v){
+        if (null == v)
+            throw new IllegalArgumentException();
+        else {
+            final int[] radius = this.grid().radius(x,y,z,r);
+
+            for (int idx: radius){
+                v.visit(idx,(R)this.get(idx));
+            }
+            return radius.length;
+        }
+    }
+    /**
+     * Radius query in parallel
+     * 
+     * @param points Query points as { x, y, z } triples
+     * @param r Radius, inclusive
+     * @param pool Fork join pool
+     * @return List indeces of the children within the radius, in list
+     * order, per query point
+     */
+    public int[][] radius(float[] points, float r, java.util.concurrent.ForkJoinPool pool){
+        if (null == points || 0 != (points.length % 3) || null == pool)
+            throw new IllegalArgumentException();
+        else {
+            final int[][] radius = new int[points.length/3][];
+
+            pool.invoke(new Grid.Batch(this.grid(),points,0,r,radius,0,radius.length));
+
+            return radius;
+        }
+    }
+    /**
+     * Subtree range query, descending into children whose bounds
+     * intersect the box.
+     * 
+     * @param box Two, three or four dimensional bounds, inclusive
+     * @param v Consumer of descendants enclosed by the bounds, having
+     * null ordinates only in unbounded dimensions, with their list
+     * index in their container
+     * @return Number of descendants enclosed by the bounds
+     * @see SpacetimeBounds#encloses(spacetime.SpacetimeObject)
+     */
+    public <R extends Spacetime<E>> int search(SpacetimeBounds box, Visitor<R> v){
+        if (null == box || null == v)
+            throw new IllegalArgumentException();
+        else {
+            final SpacetimeBounds bounds = this.getSpacetimeBounds();
+            if (null == bounds || !bounds.intersects(box))
+                return 0;
+            else {
+                int count = 0;
+
+                for (int idx = 0, size = this.size(); idx < size; idx++){
+
+                    final Spacetime child = (Spacetime)super.get(idx);
+                    if (null != child){
+
+                        if (box.encloses(child)){
+                            v.visit(idx,(R)child);
+                            count += 1;
+                        }
+                        count += child.search(box,v);
+                    }
+                }
+                return count;
+            }
+        }
+    }
+    /**
+     * Recompute the bounds from the children, as following updates to
+     * children other than by the methods of this class.
+     */
+    public void rebound(){
+        this.rebound = false;
+        this.bounds = null;
+
+        for (int idx = 0, size = this.size(); idx < size; idx++){
+
+            this.include((Spacetime)super.get(idx));
+        }
+    }
+    /**
+     * Copy on write clone.  The clone shares the list, indexes and
+     * bounds of this container, and each side copies them before its
+     * first update.  Children are shared, as for {@link #clone()},
+     * and are replaced by their own copy on write clones with {@link
+     * #edit(int)}, so that an edit copies the containers on its path
+     * from the root.
+     */
+    public Spacetime<E> share(){
+
+        final Spacetime raw = this; // erasure of the list type
+
+        final Object[] list = raw.list;
+        raw.list = null;
+        final Spacetime<E> clone;
+        try {
+            clone = (Spacetime<E>)super.clone();
+        }
+        finally {
+            raw.list = list;
+        }
+        ((Spacetime)clone).list = list;
+
+        this.shared = true;
+        this.edited = new java.util.BitSet();
+        this.integrator = null;
+        clone.shared = true;
+        clone.edited = new java.util.BitSet();
+        clone.integrator = null;
+        clone.collider = null;
+
+        final SpacetimeMotion motion = this.motion;
+        if (null != motion)
+            clone.motion = new SpacetimeMotion(motion);
+
+        return clone;
+    }
+    /**
+     * Replace a child shared with a copy on write clone by its own
+     * copy on write clone, once following {@link #share()}.  The
+     * index, grid and bounds are unchanged, as the child is equal,
+     * and updates to the child are reflected following {@link
+     * #rebound()} and {@link #regrid()}.
+     * 
+     * @return Child for update, or null
+     */
+    public <R extends Spacetime<E>> R edit(int idx){
+
+        final Spacetime<E> child = super.get(idx);
+        if (null == child)
+            return null;
+        else {
+            java.util.BitSet edited = this.edited;
+            if (null != edited && edited.get(idx))
+                return (R)child;
+            else {
+                final Spacetime<E> copy = child.share();
+
+                this.write();
+
+                super.set(idx,copy);
+
+                if (null == edited){
+                    edited = new java.util.BitSet();
+                    this.edited = edited;
+                }
+                edited.set(idx);
+
+                return (R)copy;
+            }
+        }
+    }
+    @Override
+    public int add(Spacetime<E> p){
+        this.write();
+
+        final int idx = super.add(p);
+
+        this.include(p);
+
+        this.modified += 1;
+
+        return idx;
+    }
+    @Override
+    public void insert(Spacetime<E> p, int idx){
+        this.write();
+
+        super.insert(p,idx);
+
+        this.edited(idx,1);
+
+        this.include(p);
+
+        this.modified += 1;
+    }
+    @Override
+    public Spacetime<E> set(int idx, Spacetime<E> p){
+        this.write();
+
+        final Spacetime<E> old = super.set(idx,p);
+
+        this.exclude(old,p);
+
+        this.include(p);
+
+        this.modified += 1;
+
+        return old;
+    }
+    @Override
+    public Spacetime<E> remove(Object p){
+        this.write();
+
+        final int idx = (null == this.edited)?(-1):(super.indexOf((Spacetime<E>)p));
+
+        final Spacetime<E> old = super.remove(p);
+
+        this.rebound = true;
+
+        this.modified += 1;
+
+        if (-1 < idx)
+            this.edited(idx+1,-1);
+
+        return old;
+    }
+    @Override
+    protected Spacetime<E> removeIn(int idx){
+        this.write();
+
+        final Spacetime<E> old = super.removeIn(idx);
+
+        this.rebound = true;
+
+        this.modified += 1;
+
+        this.edited(idx+1,-1);
+
+        return old;
+    }
+    /**
+     * Advance the children having X, Y and motion by the Taylor
+     * series of their motion, updating the space time index for the
+     * children that change cells.  Moving children shared with a copy
+     * on write clone are replaced by {@link #edit(int)} before the
+     * step.
+     * 
+     * @param dt Time interval
+     * @param pool Fork join pool, or null
+     * @return Number of children that changed cells
+     * @see Integrator
+     */
+    public int advance(float dt, java.util.concurrent.ForkJoinPool pool){
+        if (dt != dt)
+            throw new IllegalArgumentException(String.valueOf(dt));
+        else {
+            /*
+             * Children shared with a copy on write clone are
+             * replaced before their update in place
+             */
+            final java.util.BitSet edited = this.edited;
+            if (null != edited){
+                for (int idx = 0, size = this.size(); idx < size; idx++){
+
+                    if (!edited.get(idx) && Integrator.Moving(super.get(idx))){
+
+                        this.edit(idx);
+
+                        this.integrator = null;
+                    }
+                }
+            }
+            final Integrator integrator = this.integrator();
+            if (0 == integrator.members())
+                return 0;
+            else {
+                this.write();
+
+                final int moved = integrator.advance(this,dt,pool);
+
+                this.modified += 1;
+                integrator.modified = this.modified;
+
+                this.rebound = true;
+
+                return moved;
+            }
+        }
+    }
+    /**
+     * Broad phase collision, updated for the children changed since
+     * the last call.
+     * 
+     * @param margin Growth of the box of each child
+     * @param pool Fork join pool for a full build, or null
+     * @return Pairs of list indeces { a, b } of the children whose
+     * boxes overlap, with a less than b, in ascending order
+     * @see Collider
+     */
+    public int[] collide(float margin, java.util.concurrent.ForkJoinPool pool){
+
+        Collider collider = this.collider;
+        if (null == collider || margin != collider.getMargin()){
+            collider = new Collider(this.resolution,margin);
+            this.collider = collider;
+        }
+        return collider.update(this,pool);
+    }
+    /**
+     * @return Immutable copy of the container, for lookups by
+     * concurrent readers
+     */
+    public FrozenSpacetime<E> freeze(){
+
+        return new FrozenSpacetime<E>(this);
+    }
+    /**
+     * Drop the range query structures, packed motion and collision
+     * pairs, as following updates to the list or children other than
+     * by the methods of this class.
+     */
+    public void regrid(){
+        this.grid = null;
+        this.hierarchy = null;
+        this.timeline = null;
+        this.integrator = null;
+        this.collider = null;
+    }
     /**
      * @return List for iteration
      */
     public <R extends Spacetime<E>> java.lang.Iterable<R> iterable(){
         return (Iterable<R>)this;
     }
+    /**
+     * The space time index grows itself
+     */
     public void restx(){
-        Index<Key> stx = this.stx;
-        if (null != stx){
-            this.stx = stx.reindex();
-        }
     }
+    /**
+     * Grow the index table when the load threshold is crossed
+     */
     public void rertx(){
         Index rtx = this.rtx;
-        if (null != rtx){
+        if (null != rtx && Reindex(rtx)){
             this.rtx = rtx.reindex();
         }
     }
@@ -219,7 +1259,20 @@ public class Spacetime<E extends Enum<E>>
 
         Spacetime<E> clone = (Spacetime<E>)super.clone();
 
-        Index<Key> stx = this.stx;
+        clone.grid = null;
+        clone.hierarchy = null;
+        clone.timeline = null;
+        clone.integrator = null;
+        clone.collider = null;
+        clone.shared = false;
+        clone.edited = null;
+
+        SpacetimeBounds bounds = this.bounds;
+        if (null != bounds){
+            clone.bounds = new SpacetimeBounds(bounds);
+        }
+
+        SpatialHash stx = this.stx;
         if (null != stx){
             clone.stx = stx.clone();
         }
@@ -228,17 +1281,197 @@ public class Spacetime<E extends Enum<E>>
         if (null != rtx){
             clone.rtx = rtx.clone();
         }
+        clone.otx = null;
 
         return clone;
     }
-    protected Index<Key> stx(){
-        Index<Key> stx = this.stx;
+    /**
+     * Copy the list, indexes and bounds shared with a copy on write
+     * clone before an update
+     */
+    protected void write(){
+        if (this.shared){
+            this.shared = false;
+
+            final Spacetime raw = this; // erasure of the list type
+
+            final Object[] list = raw.list;
+            if (null != list)
+                raw.list = list.clone();
+
+            final SpatialHash stx = this.stx;
+            if (null != stx)
+                this.stx = stx.clone();
+
+            final Index rtx = this.rtx;
+            if (null != rtx)
+                this.rtx = rtx.clone();
+
+            this.otx = null;
+
+            final SpacetimeBounds bounds = this.bounds;
+            if (null != bounds)
+                this.bounds = new SpacetimeBounds(bounds);
+        }
+    }
+    /**
+     * Move the edited marks of the children from the list index by
+     * the offset, following an insert or removal
+     */
+    protected void edited(int from, int by){
+        final java.util.BitSet edited = this.edited;
+        if (null != edited){
+            final int end = edited.length();
+            if (from < end){
+                final java.util.BitSet moved = edited.get(from,end);
+
+                edited.clear(Math.min(from,from+by),end);
+
+                for (int b = moved.nextSetBit(0); -1 < b; b = moved.nextSetBit(b+1)){
+
+                    edited.set(from+by+b);
+                }
+            }
+            else if (from+by < end)
+                edited.clear(from+by);
+        }
+    }
+    /**
+     * Extend the bounds to the coordinates and bounds of the child
+     */
+    protected void include(Spacetime child){
+        if (null != child && !this.rebound){
+
+            final SpacetimeBounds cb = child.getSpacetimeBounds();
+
+            SpacetimeBounds bounds = this.bounds;
+            if (null == bounds){
+                bounds = new SpacetimeBounds();
+
+                final boolean point = bounds.include(child);
+
+                if ((null != cb && bounds.include(cb)) || point)
+                    this.bounds = bounds;
+            }
+            else {
+                bounds.include(child);
+
+                if (null != cb)
+                    bounds.include(cb);
+            }
+        }
+    }
+    /**
+     * Bounds require recompute following the replacement of a child
+     */
+    protected void exclude(Spacetime old, Spacetime p){
+        if (null != old && old != p)
+            this.rebound = true;
+    }
+    protected SpatialHash stx(){
+        SpatialHash stx = this.stx;
         if (null == stx){
-            stx = new Index();
+            stx = new SpatialHash(this.resolution,0,this.scheme);
             this.stx = stx;
         }
         return stx;
     }
+    /**
+     * @return Range query structure current with the list
+     */
+    protected Grid grid(){
+        Grid grid = this.grid;
+        if (null == grid || grid.modified != this.modified || grid.size != this.size()){
+            grid = new Grid(this);
+            this.grid = grid;
+        }
+        return grid;
+    }
+    /**
+     * @return Multiple resolution query structure current with the
+     * list
+     */
+    protected Hierarchy hierarchy(){
+        Hierarchy hierarchy = this.hierarchy;
+        if (null == hierarchy || hierarchy.modified != this.modified || hierarchy.size != this.size()){
+            hierarchy = new Hierarchy(this);
+            this.hierarchy = hierarchy;
+        }
+        return hierarchy;
+    }
+    /**
+     * @return Temporal query structure current with the list
+     */
+    protected Timeline timeline(){
+        Timeline timeline = this.timeline;
+        if (null == timeline || timeline.modified != this.modified || timeline.size != this.size()){
+            timeline = new Timeline(this);
+            this.timeline = timeline;
+        }
+        return timeline;
+    }
+    /**
+     * @return Packed motion current with the list
+     */
+    protected Integrator integrator(){
+        Integrator integrator = this.integrator;
+        if (null == integrator || integrator.modified != this.modified || integrator.size != this.size()){
+            integrator = new Integrator(this);
+            this.integrator = integrator;
+        }
+        return integrator;
+    }
+    /**
+     * @return Child of the entry of the ordered index, or null for
+     * none or an entry key of another class than the key
+     */
+    protected <R extends Spacetime<E>> R child(Comparable k, java.util.Map.Entry<Comparable,Integer> entry){
+        if (null == entry || k.getClass() != entry.getKey().getClass())
+            return null;
+        else
+            return (R)super.get(entry.getValue().intValue());
+    }
+    /**
+     * Visit the children of the entries of the ordered index, while
+     * the key has the prefix, when not null
+     */
+    protected <R extends Spacetime<E>> int visit(java.util.SortedMap<Comparable,Integer> map, String prefix, Visitor<R> v){
+        int count = 0;
+        for (java.util.Map.Entry<Comparable,Integer> entry: map.entrySet()){
+
+            if (null != prefix){
+                final Comparable key = entry.getKey();
+                if (!(key instanceof String && ((String)key).startsWith(prefix)))
+                    break;
+            }
+            final int idx = entry.getValue().intValue();
+            final R child = (R)super.get(idx);
+            if (null != child){
+                v.visit(idx,child);
+                count += 1;
+            }
+        }
+        return count;
+    }
+    /**
+     * @return Runtime keys in key order
+     */
+    protected java.util.TreeMap<Comparable,Integer> otx(){
+        java.util.TreeMap<Comparable,Integer> otx = this.otx;
+        if (null == otx){
+            otx = new java.util.TreeMap<Comparable,Integer>(KeyOrder);
+            final Index rtx = this.rtx;
+            if (null != rtx){
+                for (Object key: rtx.keys()){
+                    final int idx = rtx.get((Comparable)key);
+                    if (-1 < idx)
+                        otx.put((Comparable)key,idx);
+                }
+            }
+            this.otx = otx;
+        }
+        return otx;
+    }
     protected Index rtx(){
         Index rtx = this.rtx;
         if (null == rtx){
@@ -248,6 +1481,18 @@ public class Spacetime<E extends Enum<E>>
         return rtx;
     }
 
+    /**
+     * The index reindexes itself into a table of half as many buckets
+     * as entries past an average load of three.  The table size is
+     * limited to the largest of its primes, after which reindexing
+     * would rebuild the table at the same size on every call.
+     * 
+     * @return Reindexing would grow the table
+     */
+    protected final static boolean Reindex(Index index){
+
+        return (Load < index.load() && index.size < Primes.Ceil(index.size()>>1));
+    }
     protected final static int Index(float ordinal, float resolution){
 
         return (int)Math.floor(ordinal*resolution);
@@ -18,7 +18,17 @@
  */
 package spacetime.standalone;
 
-
+/**
+ * Axis aligned box in two, three or four dimensions, having inclusive
+ * minimum and maximum values.  A null minimum or maximum is
+ * unbounded.
+ *
+ * <p> The bounds of a {@link Spacetime} container are the extent of
+ * the coordinates and bounds of its children, excluding null
+ * ordinates, and are null for a container having none. </p>
+ * 
+ * @see Spacetime#query(SpacetimeBounds)
+ */
 public class SpacetimeBounds
     extends Object
     implements spacetime.SpacetimeBounds<java.lang.Float>
@@ -30,6 +40,30 @@ public class SpacetimeBounds
     public SpacetimeBounds(){
         super();
     }
+    public SpacetimeBounds(Float x0, Float x1, Float y0, Float y1){
+        super();
+        this.x0 = x0;
+        this.x1 = x1;
+        this.y0 = y0;
+        this.y1 = y1;
+    }
+    public SpacetimeBounds(Float x0, Float x1, Float y0, Float y1, Float z0, Float z1){
+        this(x0,x1,y0,y1);
+        this.z0 = z0;
+        this.z1 = z1;
+    }
+    public SpacetimeBounds(Float x0, Float x1, Float y0, Float y1, Float z0, Float z1, Float t0, Float t1){
+        this(x0,x1,y0,y1,z0,z1);
+        this.t0 = t0;
+        this.t1 = t1;
+    }
+    public SpacetimeBounds(spacetime.SpacetimeBounds<Float> copy){
+        this(copy.getSpacetimeXmin(),copy.getSpacetimeXmax(),
+             copy.getSpacetimeYmin(),copy.getSpacetimeYmax(),
+             copy.getSpacetimeZmin(),copy.getSpacetimeZmax(),
+             copy.getSpacetimeTmin(),copy.getSpacetimeTmax());
+    }
+
 
 
     public Float getSpacetimeXmin(){
@@ -59,4 +93,158 @@ public class SpacetimeBounds
     public Float getSpacetimeTmax(){
         return this.t1;
     }
+
+    /**
+     * @return The point is within the bounds, inclusively
+     */
+    public boolean contains(float x, float y, float z, float t){
+
+        return (Contains(this.x0,this.x1,x) &&
+                Contains(this.y0,this.y1,y) &&
+                Contains(this.z0,this.z1,z) &&
+                Contains(this.t0,this.t1,t));
+    }
+    /**
+     * @return The point is within the bounds, inclusively, where a
+     * null ordinate is zero
+     */
+    public boolean contains(spacetime.SpacetimeObject<Float> p){
+
+        return this.contains(STL.Value(p.getSpacetimeX()),STL.Value(p.getSpacetimeY()),
+                             STL.Value(p.getSpacetimeZ()),STL.Value(p.getSpacetimeT()));
+    }
+
+    /**
+     * @return The point is within the bounds, inclusively, where a
+     * null ordinate is within unbounded dimensions only
+     */
+    public boolean encloses(spacetime.SpacetimeObject<Float> p){
+
+        return (Encloses(this.x0,this.x1,p.getSpacetimeX()) &&
+                Encloses(this.y0,this.y1,p.getSpacetimeY()) &&
+                Encloses(this.z0,this.z1,p.getSpacetimeZ()) &&
+                Encloses(this.t0,this.t1,p.getSpacetimeT()));
+    }
+    /**
+     * @return The bounds overlap, inclusively
+     */
+    public boolean intersects(spacetime.SpacetimeBounds<Float> b){
+
+        return (Intersects(this.x0,this.x1,b.getSpacetimeXmin(),b.getSpacetimeXmax()) &&
+                Intersects(this.y0,this.y1,b.getSpacetimeYmin(),b.getSpacetimeYmax()) &&
+                Intersects(this.z0,this.z1,b.getSpacetimeZmin(),b.getSpacetimeZmax()) &&
+                Intersects(this.t0,this.t1,b.getSpacetimeTmin(),b.getSpacetimeTmax()));
+    }
+    /**
+     * Extend the bounds to the point, excluding null ordinates.
+     * 
+     * @return The point has an ordinate
+     */
+    protected boolean include(spacetime.SpacetimeObject<Float> p){
+        boolean included = false;
+
+        final Float x = p.getSpacetimeX();
+        if (null != x){
+            this.x0 = Min(this.x0,x);
+            this.x1 = Max(this.x1,x);
+            included = true;
+        }
+        final Float y = p.getSpacetimeY();
+        if (null != y){
+            this.y0 = Min(this.y0,y);
+            this.y1 = Max(this.y1,y);
+            included = true;
+        }
+        final Float z = p.getSpacetimeZ();
+        if (null != z){
+            this.z0 = Min(this.z0,z);
+            this.z1 = Max(this.z1,z);
+            included = true;
+        }
+        final Float t = p.getSpacetimeT();
+        if (null != t){
+            this.t0 = Min(this.t0,t);
+            this.t1 = Max(this.t1,t);
+            included = true;
+        }
+        return included;
+    }
+    /**
+     * Extend the bounds to the bounds, excluding null ordinates.
+     * 
+     * @return The bounds have an ordinate
+     */
+    protected boolean include(spacetime.SpacetimeBounds<Float> b){
+        boolean included = false;
+
+        Float v;
+        if (null != (v = b.getSpacetimeXmin())){
+            this.x0 = Min(this.x0,v);
+            included = true;
+        }
+        if (null != (v = b.getSpacetimeXmax())){
+            this.x1 = Max(this.x1,v);
+            included = true;
+        }
+        if (null != (v = b.getSpacetimeYmin())){
+            this.y0 = Min(this.y0,v);
+            included = true;
+        }
+        if (null != (v = b.getSpacetimeYmax())){
+            this.y1 = Max(this.y1,v);
+            included = true;
+        }
+        if (null != (v = b.getSpacetimeZmin())){
+            this.z0 = Min(this.z0,v);
+            included = true;
+        }
+        if (null != (v = b.getSpacetimeZmax())){
+            this.z1 = Max(this.z1,v);
+            included = true;
+        }
+        if (null != (v = b.getSpacetimeTmin())){
+            this.t0 = Min(this.t0,v);
+            included = true;
+        }
+        if (null != (v = b.getSpacetimeTmax())){
+            this.t1 = Max(this.t1,v);
+            included = true;
+        }
+        return included;
+    }
+
+    protected final static boolean Contains(Float min, Float max, float value){
+
+        return ((null == min || min.floatValue() <= value) &&
+                (null == max || value <= max.floatValue()));
+    }
+    protected final static boolean Encloses(Float min, Float max, Float value){
+        if (null == value)
+            return (null == min && null == max);
+        else
+            return Contains(min,max,value.floatValue());
+    }
+    protected final static boolean Intersects(Float min0, Float max0, Float min1, Float max1){
+
+        return ((null == min0 || null == max1 || min0.floatValue() <= max1.floatValue()) &&
+                (null == min1 || null == max0 || min1.floatValue() <= max0.floatValue()));
+    }
+    /**
+     * @return Lesser value, where null is unset
+     */
+    protected final static Float Min(Float bound, Float value){
+        if (null == bound || value.floatValue() < bound.floatValue())
+            return value;
+        else
+            return bound;
+    }
+    /**
+     * @return Greater value, where null is unset
+     */
+    protected final static Float Max(Float bound, Float value){
+        if (null == bound || value.floatValue() > bound.floatValue())
+            return value;
+        else
+            return bound;
+    }
 }
@@ -18,7 +18,13 @@
  */
 package spacetime.standalone;
 
-
+/**
+ * First, second and third derivatives of X, Y and Z at time T.  The
+ * deltas over a time interval are the sums of the terms of the
+ * Taylor series, where a null derivative is zero.
+ * 
+ * @see Integrator
+ */
 public class SpacetimeMotion
     extends Object
     implements spacetime.SpacetimeMotion<java.lang.Float>
@@ -30,15 +36,45 @@ public class SpacetimeMotion
     public SpacetimeMotion(){
         super();
     }
+    public SpacetimeMotion(Float t, Float dx1, Float dy1, Float dz1){
+        super();
+        this.t = t;
+        this.dx1 = dx1;
+        this.dy1 = dy1;
+        this.dz1 = dz1;
+    }
+    public SpacetimeMotion(Float t, Float dx1, Float dx2, Float dx3, Float dy1, Float dy2, Float dy3, Float dz1, Float dz2, Float dz3){
+        super();
+        this.t = t;
+        this.dx1 = dx1;
+        this.dx2 = dx2;
+        this.dx3 = dx3;
+        this.dy1 = dy1;
+        this.dy2 = dy2;
+        this.dy3 = dy3;
+        this.dz1 = dz1;
+        this.dz2 = dz2;
+        this.dz3 = dz3;
+    }
+    public SpacetimeMotion(SpacetimeMotion copy){
+        this(copy.t,copy.dx1,copy.dx2,copy.dx3,copy.dy1,copy.dy2,copy.dy3,copy.dz1,copy.dz2,copy.dz3);
+    }
 
 
     public Float getSpacetimeT(){
         return this.t;
     }
 
+    /**
+     * @param dt Time interval
+     * @return Change in X over the interval
+     * @exception java.lang.IllegalArgumentException Null interval
+     */
     public Float getSpacetimeDeltaX(Float dt){
-
-        throw new IllegalArgumentException();
+        if (null == dt)
+            throw new IllegalArgumentException();
+        else
+            return Delta(this.dx1,this.dx2,this.dx3,dt.floatValue());
     }
     public Float getSpacetimeDX1(){
         return this.dx1;
@@ -50,9 +86,16 @@ public class SpacetimeMotion
         return this.dx3;
     }
 
+    /**
+     * @param dt Time interval
+     * @return Change in Y over the interval
+     * @exception java.lang.IllegalArgumentException Null interval
+     */
     public Float getSpacetimeDeltaY(Float dt){
-
-        throw new IllegalArgumentException();
+        if (null == dt)
+            throw new IllegalArgumentException();
+        else
+            return Delta(this.dy1,this.dy2,this.dy3,dt.floatValue());
     }
     public Float getSpacetimeDY1(){
         return this.dy1;
@@ -64,9 +107,16 @@ public class SpacetimeMotion
         return this.dy3;
     }
 
+    /**
+     * @param dt Time interval
+     * @return Change in Z over the interval
+     * @exception java.lang.IllegalArgumentException Null interval
+     */
     public Float getSpacetimeDeltaZ(Float dt){
-
-        throw new IllegalArgumentException();
+        if (null == dt)
+            throw new IllegalArgumentException();
+        else
+            return Delta(this.dz1,this.dz2,this.dz3,dt.floatValue());
     }
     public Float getSpacetimeDZ1(){
         return this.dz1;
@@ -77,4 +127,22 @@ public class SpacetimeMotion
     public Float getSpacetimeDZ3(){
         return this.dz3;
     }
+
+    /**
+     * @return Sum of the terms of the Taylor series
+     */
+    public final static float Delta(float d1, float d2, float d3, float dt){
+
+        return (dt*(d1 + dt*((d2*0.5f) + dt*(d3*(1.0f/6.0f)))));
+    }
+    protected final static float Delta(Float d1, Float d2, Float d3, float dt){
+
+        return Delta(Value(d1),Value(d2),Value(d3),dt);
+    }
+    protected final static float Value(Float value){
+        if (null == value)
+            return 0.0f;
+        else
+            return value.floatValue();
+    }
 }
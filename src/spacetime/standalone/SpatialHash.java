@@ -0,0 +1,434 @@
+/*
+ * Spacetime Standalone
+ * Copyright (C) 2013, John Pritchard.
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package spacetime.standalone;
+
+/**
+ * Open addressing hash table from X,Y,Z,T index cells to list
+ * indeces.  Cells are quantized as for {@link Key}, and stored as
+ * four ints per slot in a flat array with linear probing, so that
+ * lookup and update allocate nothing.  The table doubles when half
+ * full, and removal shifts following entries back into the probe
+ * sequence.
+ *
+ * <pre>
+ * keys   { x, y, z, t }             per slot
+ * values { index }                  per slot, or empty
+ * </pre>
+ *
+ * <p> The methods accepting boxed ordinates map null ordinates as
+ * {@link Key#For(java.lang.Float,java.lang.Float,java.lang.Float,java.lang.Float,float)},
+ * where null X or Y is the origin cell, and null Z or T is zero. </p>
+ *
+ * @see Spacetime
+ */
+public class SpatialHash
+    extends Object
+    implements java.lang.Cloneable
+{
+    /**
+     * Value of an empty slot, and return value for a missing cell
+     */
+    public final static int Empty = -1;
+    /**
+     * Minimum table size
+     */
+    protected final static int Capacity = 16;
+
+
+    /**
+     * Multiply ordinals by resolution for index
+     */
+    protected final float resolution;
+    /**
+     * Key order
+     */
+    protected final Key.Scheme scheme;
+
+    protected int[] keys;
+
+    protected int[] values;
+
+    protected int count;
+
+
+    public SpatialHash(float resolution){
+        this(resolution,0);
+    }
+    /**
+     * @param resolution Index resolution
+     * @param expected Number of cells to hold without growing
+     */
+    public SpatialHash(float resolution, int expected){
+        this(resolution,expected,Key.Scheme.Lexical);
+    }
+    /**
+     * @param resolution Index resolution
+     * @param expected Number of cells to hold without growing
+     * @param scheme Key order
+     */
+    public SpatialHash(float resolution, int expected, Key.Scheme scheme){
+        super();
+        if (null != scheme){
+            this.resolution = Math.abs(resolution);
+            this.scheme = scheme;
+            this.allocate(Capacity(expected));
+        }
+        else
+            throw new IllegalArgumentException();
+    }
+    /**
+     * Copy the entries of the table into a table of the scheme.
+     */
+    public SpatialHash(SpatialHash table, Key.Scheme scheme){
+        this(table.resolution,table.count,scheme);
+
+        final int[] keys = table.keys;
+        final int[] values = table.values;
+
+        for (int slot = 0, length = values.length; slot < length; slot++){
+
+            final int value = values[slot];
+            if (Empty != value){
+                final int k = (slot<<2);
+
+                this.put(keys[k],keys[k+1],keys[k+2],keys[k+3],value);
+            }
+        }
+    }
+
+
+    public final float getResolution(){
+        return this.resolution;
+    }
+    public final Key.Scheme getScheme(){
+        return this.scheme;
+    }
+    public final int size(){
+        return this.count;
+    }
+    public final boolean isEmpty(){
+        return (0 == this.count);
+    }
+    /**
+     * @return Number of slots
+     */
+    public final int capacity(){
+        return this.values.length;
+    }
+    /**
+     * @param slot Table slot
+     * @return Value, or empty
+     */
+    public final int value(int slot){
+        return this.values[slot];
+    }
+    /**
+     * @param slot Table slot
+     * @param dim Zero, one, two or three for X, Y, Z or T
+     * @return Cell index value
+     */
+    public final int key(int slot, int dim){
+        return this.keys[(slot<<2)+dim];
+    }
+    public void clear(){
+        java.util.Arrays.fill(this.values,Empty);
+        this.count = 0;
+    }
+    /**
+     * @return Value, or empty
+     */
+    public int get(float x, float y, float z, float t){
+        final float r = this.resolution;
+
+        return this.get(Key.IndexRep(x,r),Key.IndexRep(y,r),Key.IndexRep(z,r),Key.IndexRep(t,r));
+    }
+    /**
+     * @return Value, or empty
+     */
+    public int get(Float x, Float y, Float z, Float t){
+        if (null == x || null == y)
+            return this.get(0,0,0,0);
+        else
+            return this.get(x.floatValue(),y.floatValue(),Value(z),Value(t));
+    }
+    /**
+     * @return Value, or empty
+     */
+    public int get(int x, int y, int z, int t){
+        final int slot = this.find(x,y,z,t);
+        if (-1 < slot)
+            return this.values[slot];
+        else
+            return Empty;
+    }
+    /**
+     * @return Previous value, or empty
+     */
+    public int put(float x, float y, float z, float t, int value){
+        final float r = this.resolution;
+
+        return this.put(Key.IndexRep(x,r),Key.IndexRep(y,r),Key.IndexRep(z,r),Key.IndexRep(t,r),value);
+    }
+    /**
+     * @return Previous value, or empty
+     */
+    public int put(Float x, Float y, Float z, Float t, int value){
+        if (null == x || null == y)
+            return this.put(0,0,0,0,value);
+        else
+            return this.put(x.floatValue(),y.floatValue(),Value(z),Value(t),value);
+    }
+    /**
+     * @return Previous value, or empty
+     */
+    public int put(int x, int y, int z, int t, int value){
+        if (0 > value)
+            throw new IllegalArgumentException(String.valueOf(value));
+        else {
+            final int slot = this.find(x,y,z,t);
+            if (-1 < slot){
+                final int previous = this.values[slot];
+                this.values[slot] = value;
+                return previous;
+            }
+            else {
+                this.insert(~slot,x,y,z,t,value);
+                return Empty;
+            }
+        }
+    }
+    /**
+     * Put the value into an empty cell.
+     *
+     * @return Value of an existing cell, or empty having added the
+     * value
+     */
+    public int add(float x, float y, float z, float t, int value){
+        final float r = this.resolution;
+
+        return this.add(Key.IndexRep(x,r),Key.IndexRep(y,r),Key.IndexRep(z,r),Key.IndexRep(t,r),value);
+    }
+    /**
+     * Put the value into an empty cell.
+     *
+     * @return Value of an existing cell, or empty having added the
+     * value
+     */
+    public int add(Float x, Float y, Float z, Float t, int value){
+        if (null == x || null == y)
+            return this.add(0,0,0,0,value);
+        else
+            return this.add(x.floatValue(),y.floatValue(),Value(z),Value(t),value);
+    }
+    /**
+     * Put the value into an empty cell.
+     *
+     * @return Value of an existing cell, or empty having added the
+     * value
+     */
+    public int add(int x, int y, int z, int t, int value){
+        if (0 > value)
+            throw new IllegalArgumentException(String.valueOf(value));
+        else {
+            final int slot = this.find(x,y,z,t);
+            if (-1 < slot)
+                return this.values[slot];
+            else {
+                this.insert(~slot,x,y,z,t,value);
+                return Empty;
+            }
+        }
+    }
+    /**
+     * @return Removed value, or empty
+     */
+    public int remove(float x, float y, float z, float t){
+        final float r = this.resolution;
+
+        return this.remove(Key.IndexRep(x,r),Key.IndexRep(y,r),Key.IndexRep(z,r),Key.IndexRep(t,r));
+    }
+    /**
+     * @return Removed value, or empty
+     */
+    public int remove(Float x, Float y, Float z, Float t){
+        if (null == x || null == y)
+            return this.remove(0,0,0,0);
+        else
+            return this.remove(x.floatValue(),y.floatValue(),Value(z),Value(t));
+    }
+    /**
+     * @return Removed value, or empty
+     */
+    public int remove(int x, int y, int z, int t){
+        int slot = this.find(x,y,z,t);
+        if (-1 < slot){
+            final int[] keys = this.keys;
+            final int[] values = this.values;
+            final int mask = (values.length-1);
+
+            final int removed = values[slot];
+            values[slot] = Empty;
+            this.count -= 1;
+            /*
+             * Shift following entries of the probe sequence into
+             * the vacancy
+             */
+            int next = slot;
+            while (true){
+                next = ((next+1) & mask);
+                if (Empty == values[next])
+                    break;
+                else {
+                    final int nk = (next<<2);
+                    final int home = (this.scheme.hash(keys[nk],keys[nk+1],keys[nk+2],keys[nk+3]) & mask);
+                    /*
+                     * Move when the home slot is not cyclically
+                     * within (slot, next]
+                     */
+                    if ((slot <= next)?(slot >= home || home > next):(slot >= home && home > next)){
+
+                        System.arraycopy(keys,nk,keys,(slot<<2),4);
+                        values[slot] = values[next];
+                        values[next] = Empty;
+                        slot = next;
+                    }
+                }
+            }
+            return removed;
+        }
+        else
+            return Empty;
+    }
+    /**
+     * @param expected Number of cells to hold without growing
+     */
+    public void ensure(int expected){
+        final int capacity = Capacity(expected);
+        if (capacity > this.values.length)
+            this.rehash(capacity);
+    }
+    public SpatialHash clone(){
+        try {
+            final SpatialHash clone = (SpatialHash)super.clone();
+            clone.keys = this.keys.clone();
+            clone.values = this.values.clone();
+            return clone;
+        }
+        catch (CloneNotSupportedException exc){
+            throw new InternalError();
+        }
+    }
+    /**
+     * @return Slot holding the cell, or the complement of the empty
+     * slot ending its probe sequence
+     */
+    protected final int find(int x, int y, int z, int t){
+        final int[] keys = this.keys;
+        final int[] values = this.values;
+        final int mask = (values.length-1);
+
+        int slot = (this.scheme.hash(x,y,z,t) & mask);
+        while (true){
+            if (Empty == values[slot])
+                return ~slot;
+            else {
+                final int k = (slot<<2);
+                if (x == keys[k] && y == keys[k+1] && z == keys[k+2] && t == keys[k+3])
+                    return slot;
+                else
+                    slot = ((slot+1) & mask);
+            }
+        }
+    }
+    protected final void insert(int slot, int x, int y, int z, int t, int value){
+        final int k = (slot<<2);
+        this.keys[k] = x;
+        this.keys[k+1] = y;
+        this.keys[k+2] = z;
+        this.keys[k+3] = t;
+        this.values[slot] = value;
+        this.count += 1;
+
+        if ((this.count<<1) > this.values.length)
+            this.rehash(this.values.length<<1);
+    }
+    protected final void allocate(int capacity){
+        this.keys = new int[capacity<<2];
+        this.values = new int[capacity];
+        java.util.Arrays.fill(this.values,Empty);
+    }
+    protected final void rehash(int capacity){
+        final int[] keys = this.keys;
+        final int[] values = this.values;
+
+        this.allocate(capacity);
+
+        final int mask = (capacity-1);
+
+        for (int slot = 0, length = values.length; slot < length; slot++){
+
+            final int value = values[slot];
+            if (Empty != value){
+                final int k = (slot<<2);
+                final int x = keys[k], y = keys[k+1], z = keys[k+2], t = keys[k+3];
+
+                int to = (this.scheme.hash(x,y,z,t) & mask);
+                while (Empty != this.values[to])
+                    to = ((to+1) & mask);
+
+                System.arraycopy(keys,k,this.keys,(to<<2),4);
+                this.values[to] = value;
+            }
+        }
+    }
+
+    /**
+     * Mix the cell index values over all bits, as the table is
+     * addressed by the low bits.
+     * 
+     * @see Key.Scheme#Lexical
+     */
+    public final static int Hash(int x, int y, int z, int t){
+        int h = x * 0x9E3779B1;
+        h = (h ^ y) * 0x85EBCA6B;
+        h = (h ^ z) * 0xC2B2AE35;
+        h = (h ^ t) * 0x27D4EB2F;
+        return (h ^ (h >>> 15));
+    }
+    /**
+     * @return Power of two table size holding the number of cells at
+     * half load
+     */
+    protected final static int Capacity(int expected){
+        int capacity = Capacity;
+        while (capacity < (expected<<1) && 0 < capacity)
+            capacity <<= 1;
+
+        if (0 < capacity)
+            return capacity;
+        else
+            throw new IllegalArgumentException(String.valueOf(expected));
+    }
+    protected final static float Value(Float value){
+        if (null == value)
+            return 0f;
+        else
+            return value.floatValue();
+    }
+}
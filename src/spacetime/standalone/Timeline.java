@@ -0,0 +1,242 @@
+/*
+ * Spacetime Standalone
+ * Copyright (C) 2013, John Pritchard.
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package spacetime.standalone;
+
+/**
+ * Temporal index over the children of a container having a T
+ * ordinate, partitioned into time buckets by the T cell of the index.
+ * Children without a T ordinate are untimed, and are not in the
+ * timeline.
+ *
+ * <pre>
+ * times    { t }                          per bucket, ascending
+ * start    { offset }                     per bucket, and end
+ * members  { child index }                by bucket, in list order
+ * values   { t }                          per member
+ * </pre>
+ *
+ * <p> A window query finds the buckets of the window by binary
+ * search, and tests the children of each against the window and an
+ * optional spatial box. </p>
+ *
+ * @see Spacetime#window(float,float,SpacetimeBounds)
+ * @see Spacetime#evict(float)
+ */
+public class Timeline
+    extends Object
+{
+
+    protected final float resolution;
+
+    protected final int[] times;
+
+    protected final int[] start;
+
+    protected final int[] members;
+
+    protected final float[] values;
+    /**
+     * Container list length when built
+     */
+    public final int size;
+    /**
+     * Container modification count when built
+     */
+    public final int modified;
+
+
+    /**
+     * Build over the children of the container.
+     */
+    public Timeline(Spacetime container){
+        super();
+        final float r = container.resolution;
+        final int size = container.size();
+
+        this.resolution = r;
+        this.size = size;
+        this.modified = container.modified;
+        /*
+         * Bucket of each timed child
+         */
+        final int[] cell = new int[size];
+        final SpatialHash buckets = new SpatialHash(1.0f,0,Key.Scheme.Lexical);
+        int[] count = new int[16];
+        int[] times = new int[16];
+        int bc = 0, timed = 0;
+        for (int cc = 0; cc < size; cc++){
+            final Spacetime child = (Spacetime)container.get(cc);
+            if (null == child || null == child.t)
+                cell[cc] = -1;
+            else {
+                final int t = Key.IndexRep(child.t.floatValue(),r);
+                int b = buckets.add(t,0,0,0,bc);
+                if (-1 == b){
+                    b = bc++;
+                    if (b == count.length){
+                        count = Grow(count);
+                        times = Grow(times);
+                    }
+                    times[b] = t;
+                }
+                cell[cc] = b;
+                count[b] += 1;
+                timed += 1;
+            }
+        }
+        /*
+         * Buckets in time order
+         */
+        final long[] order = new long[bc];
+        for (int b = 0; b < bc; b++){
+            order[b] = ((((long)times[b])<<32)|b);
+        }
+        java.util.Arrays.sort(order);
+
+        final int[] rank = new int[bc];
+        this.times = new int[bc];
+        this.start = new int[bc+1];
+        for (int k = 0; k < bc; k++){
+            final int b = (int)(order[k] & 0xFFFFFFFFL);
+            rank[b] = k;
+            this.times[k] = times[b];
+            this.start[k+1] = (this.start[k]+count[b]);
+        }
+        /*
+         * Members in list order
+         */
+        this.members = new int[timed];
+        this.values = new float[timed];
+        final int[] fill = new int[bc];
+        System.arraycopy(this.start,0,fill,0,bc);
+        for (int cc = 0; cc < size; cc++){
+            final int b = cell[cc];
+            if (-1 < b){
+                final int m = fill[rank[b]]++;
+                this.members[m] = cc;
+                this.values[m] = ((Spacetime)container.get(cc)).t.floatValue();
+            }
+        }
+    }
+
+
+    /**
+     * @return Number of occupied time buckets
+     */
+    public final int buckets(){
+        return this.times.length;
+    }
+    /**
+     * @return Number of timed children
+     */
+    public final int timed(){
+        return this.members.length;
+    }
+    /**
+     * @return Least T ordinate of the earliest bucket, or null for
+     * none
+     */
+    public final Float earliest(){
+        if (0 == this.times.length)
+            return null;
+        else
+            return (this.times[0] / this.resolution);
+    }
+    /**
+     * @param container Container of this timeline
+     * @param t0 Window minimum, inclusive
+     * @param t1 Window maximum, inclusive
+     * @param box Spatial bounds, or null for all space
+     * @param v Visitor, receiving children in the window by time
+     * bucket, and in list order within a bucket
+     * @return Number of children in the window
+     */
+    public int window(Spacetime container, float t0, float t1, SpacetimeBounds box, Spacetime.Visitor v){
+        if (!(t0 <= t1))
+            return 0;
+        else {
+            final float r = this.resolution;
+            final int[] members = this.members;
+            final float[] values = this.values;
+            int found = 0;
+
+            for (int b = this.bucket(Key.IndexRep(t0,r)), end = this.bucket(Key.IndexRep(t1,r)+1L); b < end; b++){
+
+                for (int m = this.start[b], me = this.start[b+1]; m < me; m++){
+                    final float t = values[m];
+                    if (t0 <= t && t <= t1){
+                        final int index = members[m];
+                        final Spacetime child = (Spacetime)container.get(index);
+
+                        if (null == box || Contains(box,child,t)){
+                            found += 1;
+
+                            v.visit(index,child);
+                        }
+                    }
+                }
+            }
+            return found;
+        }
+    }
+    /**
+     * @param horizon T ordinate
+     * @return List indeces of the children in buckets wholly older
+     * than the horizon, in list order
+     */
+    public int[] older(float horizon){
+        final int end = this.bucket(Key.IndexRep(horizon,this.resolution));
+        final int count = this.start[end];
+        final int[] older = new int[count];
+        System.arraycopy(this.members,0,older,0,count);
+        java.util.Arrays.sort(older);
+        return older;
+    }
+    /**
+     * @return Position of the first bucket at or after the T cell
+     */
+    protected int bucket(long t){
+        final int[] times = this.times;
+        int lo = 0, hi = times.length;
+        while (lo < hi){
+            final int mid = ((lo+hi)>>>1);
+            if (times[mid] < t)
+                lo = mid+1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return The child is within the box, where null spatial
+     * ordinates map as for the index
+     */
+    protected final static boolean Contains(SpacetimeBounds box, Spacetime child, float t){
+        if (null == child.x || null == child.y)
+            return box.contains(0f,0f,0f,t);
+        else
+            return box.contains(child.x.floatValue(),child.y.floatValue(),STL.Value(child.z),t);
+    }
+    protected final static int[] Grow(int[] array){
+        final int[] copier = new int[array.length<<1];
+        System.arraycopy(array,0,copier,0,array.length);
+        return copier;
+    }
+}
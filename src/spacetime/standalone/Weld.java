@@ -0,0 +1,293 @@
+/*
+ * Spacetime Standalone
+ * Copyright (C) 2013, John Pritchard.
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package spacetime.standalone;
+
+/**
+ * Indexed triangle mesh with a shared vertex pool.  Vertices falling
+ * into the same {@link Key} cell at the weld resolution are merged
+ * into one pool point, the first seen, and each facet references its
+ * corners by pool index.
+ *
+ * <pre>
+ * points   { x, y, z }               per pool vertex
+ * corners  { a, b, c }               pool indices per facet
+ * normals  { nx, ny, nz }            per facet
+ * </pre>
+ *
+ * <p> A weld is loaded by {@link STL} as a {@link STL.Visitor}, and
+ * is streamed back to a visitor with {@link #scan(STL.Visitor)}.
+ * The {@link #weld(Face)} method welds a face tree in place, so that
+ * faces share vertex objects. </p>
+ *
+ * @see STL#readWeld(java.io.File,float)
+ */
+public class Weld
+    extends Object
+    implements STL.Visitor
+{
+    /**
+     * Multiply ordinals by resolution for index
+     */
+    protected final float resolution;
+
+    protected float[] points;
+
+    protected int count;
+
+    protected int[] corners;
+
+    protected float[] normals;
+
+    protected int facets;
+
+    protected SpatialHash ptx;
+
+
+    /**
+     * @param resolution Weld cells per unit
+     */
+    public Weld(float resolution){
+        super();
+        if (0f != resolution && resolution == resolution){
+            this.resolution = Math.abs(resolution);
+            this.ptx = new SpatialHash(this.resolution);
+            this.points = new float[3*16];
+            this.corners = new int[3*16];
+            this.normals = new float[3*16];
+        }
+        else
+            throw new IllegalArgumentException(String.valueOf(resolution));
+    }
+
+
+    public final float getResolution(){
+        return this.resolution;
+    }
+    /**
+     * @return Number of facets
+     */
+    public final int size(){
+        return this.facets;
+    }
+    /**
+     * @return Number of pool vertices
+     */
+    public final int points(){
+        return this.count;
+    }
+    /**
+     * @param index Pool vertex
+     * @param axis Zero, one or two for X, Y or Z
+     */
+    public final float point(int index, int axis){
+        return this.points[(3*index)+axis];
+    }
+    /**
+     * @param facet Facet number
+     * @param corner Zero, one or two for A, B or C
+     * @return Pool vertex
+     */
+    public final int corner(int facet, int corner){
+        return this.corners[(3*facet)+corner];
+    }
+    /**
+     * @param facet Facet number
+     * @param axis Zero, one or two for X, Y or Z
+     */
+    public final float normal(int facet, int axis){
+        return this.normals[(3*facet)+axis];
+    }
+    /**
+     * @return Pool vertex for the point, added when its cell is new
+     */
+    public int vertex(float x, float y, float z){
+
+        final int index = this.count;
+
+        final int idx = this.ptx.add(x,y,z,0f,index);
+        if (-1 < idx)
+            return idx;
+        else {
+            if ((3*index) == this.points.length){
+                final float[] copier = new float[this.points.length<<1];
+                System.arraycopy(this.points,0,copier,0,this.points.length);
+                this.points = copier;
+            }
+            final int ofs = (3*index);
+            this.points[ofs] = x;
+            this.points[ofs+1] = y;
+            this.points[ofs+2] = z;
+
+            this.count = (index+1);
+
+            return index;
+        }
+    }
+    /**
+     * @param n Normal
+     * @param a First corner pool vertex
+     * @param b Second corner pool vertex
+     * @param c Third corner pool vertex
+     * @return Facet number
+     */
+    public int facet(float nx, float ny, float nz, int a, int b, int c){
+        final int facet = this.facets;
+        if ((3*facet) == this.corners.length){
+            final int[] corners = new int[this.corners.length<<1];
+            System.arraycopy(this.corners,0,corners,0,this.corners.length);
+            this.corners = corners;
+
+            final float[] normals = new float[this.normals.length<<1];
+            System.arraycopy(this.normals,0,normals,0,this.normals.length);
+            this.normals = normals;
+        }
+        final int ofs = (3*facet);
+        this.corners[ofs] = a;
+        this.corners[ofs+1] = b;
+        this.corners[ofs+2] = c;
+        this.normals[ofs] = nx;
+        this.normals[ofs+1] = ny;
+        this.normals[ofs+2] = nz;
+
+        this.facets = (facet+1);
+
+        return facet;
+    }
+    public void facet(long index, float[] facet){
+
+        final int a = this.vertex(facet[3],facet[4],facet[5]);
+        final int b = this.vertex(facet[6],facet[7],facet[8]);
+        final int c = this.vertex(facet[9],facet[10],facet[11]);
+
+        this.facet(facet[0],facet[1],facet[2],a,b,c);
+    }
+    /**
+     * Stream the facets with welded corners, as to {@link STLWriter}
+     * or {@link Mesh}.
+     */
+    public void scan(STL.Visitor v){
+
+        final float[] points = this.points;
+        final int[] corners = this.corners;
+        final float[] normals = this.normals;
+        final float[] facet = new float[12];
+
+        for (int index = 0, count = this.facets; index < count; index++){
+
+            final int ofs = (3*index);
+
+            System.arraycopy(normals,ofs,facet,0,3);
+            System.arraycopy(points,(3*corners[ofs]),facet,3,3);
+            System.arraycopy(points,(3*corners[ofs+1]),facet,6,3);
+            System.arraycopy(points,(3*corners[ofs+2]),facet,9,3);
+
+            v.facet(index,facet);
+        }
+    }
+    /**
+     * Weld the vertices of the faces listed in the root in place.
+     * The first vertex object seen in a weld cell replaces the
+     * vertices of later faces in the same cell, and the weld records
+     * the faces as indexed facets.  The index of a face is updated
+     * to the cells of its replacement vertices, which differ at a
+     * weld resolution coarser than the face resolution.
+     *
+     * @param root Face list
+     * @return Root
+     */
+    public <F extends Face> F weld(F root){
+
+        Spacetime[] pool = new Spacetime[Math.max(16,this.count)];
+
+        final Iterable<Face> it = root.iterable(); // type coersion
+
+        final int[] corner = new int[3];
+
+        final Spacetime[] replaced = new Spacetime[3];
+
+        for (Face face: it){
+
+            final Spacetime n = face.n();
+
+            boolean moved = false;
+
+            corner[0] = 0;
+            corner[1] = 0;
+            corner[2] = 0;
+
+            for (int cc = 0, cz = Math.min(3,face.size()); cc < cz; cc++){
+
+                final Spacetime v = (Spacetime)face.get(cc);
+                if (null != v){
+                    final int idx = this.vertex(STL.Value(v.x),STL.Value(v.y),STL.Value(v.z));
+                    if (idx >= pool.length){
+                        final Spacetime[] copier = new Spacetime[pool.length<<1];
+                        System.arraycopy(pool,0,copier,0,pool.length);
+                        pool = copier;
+                    }
+                    final Spacetime shared = pool[idx];
+                    if (null == shared)
+                        pool[idx] = v;
+                    else if (shared != v){
+                        face.set(cc,shared);
+
+                        replaced[cc] = v;
+                        moved = true;
+                    }
+                    corner[cc] = idx;
+                }
+            }
+            if (moved)
+                Rekey(face,replaced);
+
+            if (null != n)
+                this.facet(STL.Value(n.x),STL.Value(n.y),STL.Value(n.z),corner[0],corner[1],corner[2]);
+            else
+                this.facet(0f,0f,0f,corner[0],corner[1],corner[2]);
+        }
+        return root;
+    }
+
+    /**
+     * Move the index cells of the replaced vertices of the face to
+     * the vertices replacing them, releasing all before taking any,
+     * and clear the replaced vertices.
+     */
+    protected final static void Rekey(Face face, Spacetime[] replaced){
+        final SpatialHash stx = face.stx;
+        if (null != stx){
+            for (int cc = 0; cc < 3; cc++){
+                final Spacetime v = replaced[cc];
+                if (null != v && cc == stx.get(v.x,v.y,v.z,v.t))
+
+                    stx.remove(v.x,v.y,v.z,v.t);
+            }
+            for (int cc = 0; cc < 3; cc++){
+                if (null != replaced[cc]){
+                    final Spacetime v = (Spacetime)face.get(cc);
+
+                    stx.add(v.x,v.y,v.z,v.t,cc);
+                }
+            }
+        }
+        replaced[0] = null;
+        replaced[1] = null;
+        replaced[2] = null;
+    }
+}
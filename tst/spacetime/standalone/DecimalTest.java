@@ -0,0 +1,118 @@
+/*
+ * Spacetime Standalone
+ * Copyright (C) 2013, John Pritchard.
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package spacetime.standalone;
+
+/**
+ * Check {@link Decimal#Format(float,byte[],int)} for floats near the
+ * powers of ten, where rounding carries into the next decade.  Each
+ * float must scan back to itself, and have no more significant
+ * digits than {@link java.lang.Float#toString(float)}.
+ *
+ * <pre>
+ * java -cp tgt spacetime.standalone.DecimalTest
+ * </pre>
+ */
+public class DecimalTest
+    extends Object
+{
+    /**
+     * Floats on each side of a power of ten
+     */
+    protected final static int Neighbors = 256;
+
+
+    public static void main(String[] argv){
+        final byte[] buf = new byte[Decimal.FormatLength];
+        int count = 0, failed = 0;
+
+        for (int k = -45; k <= 38; k++){
+            final float p = (float)Math.pow(10.0,k);
+            float lo = p, hi = p;
+            for (int cc = 0; cc < Neighbors; cc++){
+
+                failed += Test(lo,buf);
+                failed += Test(hi,buf);
+                count += 2;
+
+                lo = Math.nextAfter(lo,Double.NEGATIVE_INFINITY);
+                hi = Math.nextUp(hi);
+            }
+        }
+        for (int k = -38; k <= 38; k++){
+            for (int d = 0; d < 10; d++){
+
+                failed += Test((float)((9.99999 + d*1e-6) * Math.pow(10.0,k)),buf);
+                count += 1;
+            }
+        }
+        System.out.printf("DecimalTest %d of %d failed%n",failed,count);
+        if (0 != failed)
+            System.exit(1);
+    }
+    /**
+     * @return Zero for success, one for failure
+     */
+    protected final static int Test(float value, byte[] buf){
+        if (0f == value || Float.isInfinite(value))
+            return 0;
+        else {
+            final int len = Decimal.Format(value,buf,0);
+            final String string = new String(buf,0,len);
+            final String expected = Float.toString(value);
+
+            if (value != Float.parseFloat(string)){
+                System.err.printf("DecimalTest %s does not scan to %s%n",string,expected);
+                return 1;
+            }
+            else if (Significant(string) > Significant(expected)){
+                System.err.printf("DecimalTest %s is longer than %s%n",string,expected);
+                return 1;
+            }
+            else
+                return 0;
+        }
+    }
+    /**
+     * @return Number of significant digits of the decimal
+     */
+    protected final static int Significant(String string){
+        int first = -1, last = -1;
+        for (int cc = 0, len = string.length(); cc < len; cc++){
+            final char ch = string.charAt(cc);
+            if ('e' == ch || 'E' == ch)
+                break;
+            else if ('1' <= ch && '9' >= ch){
+                if (0 > first)
+                    first = cc;
+                last = cc;
+            }
+        }
+        if (0 > first)
+            return 0;
+        else {
+            int count = 0;
+            for (int cc = first; cc <= last; cc++){
+                final char ch = string.charAt(cc);
+                if ('0' <= ch && '9' >= ch)
+                    count += 1;
+            }
+            return count;
+        }
+    }
+}